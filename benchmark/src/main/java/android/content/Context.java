@@ -0,0 +1,9 @@
+package android.content;
+
+/**
+ * Stand-in for the framework class, so the zip layer runs on a plain JVM.
+ */
+public abstract class Context {
+
+    public abstract String getPackageName();
+}
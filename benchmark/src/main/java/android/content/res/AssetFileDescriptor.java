@@ -0,0 +1,96 @@
+package android.content.res;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Stand-in for the framework class, so the zip layer runs on a plain JVM.
+ * createInputStream returns a stream limited to the descriptor's range,
+ * like the framework's AutoCloseInputStream.
+ */
+public class AssetFileDescriptor implements Closeable {
+
+    private final ParcelFileDescriptor mFd;
+    private final long mStartOffset;
+    private final long mLength;
+
+    public AssetFileDescriptor(ParcelFileDescriptor fd, long startOffset, long length) {
+        mFd = fd;
+        mStartOffset = startOffset;
+        mLength = length;
+    }
+
+    public ParcelFileDescriptor getParcelFileDescriptor() {
+        return mFd;
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        return mFd.getFileDescriptor();
+    }
+
+    public long getStartOffset() {
+        return mStartOffset;
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public long getDeclaredLength() {
+        return mLength;
+    }
+
+    public FileInputStream createInputStream() throws IOException {
+        FileInputStream in = new FileInputStream(mFd.getFileDescriptor()) {
+            private long mRemaining = mLength;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+            }
+
+            // FileInputStream.read(byte[]) doesn't go through read(byte[], int, int) on every JDK
+            @Override
+            public int read(byte[] b) throws IOException {
+                return read(b, 0, b.length);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (mRemaining <= 0) {
+                    return -1;
+                }
+                int count = super.read(b, off, (int) Math.min(len, mRemaining));
+                if (count > 0) {
+                    mRemaining -= count;
+                }
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, mRemaining);
+            }
+
+            @Override
+            public void close() throws IOException {
+                mFd.close();
+            }
+        };
+        if (in.skip(mStartOffset) != mStartOffset) {
+            in.close();
+            throw new IOException("descriptor starts past end of file");
+        }
+        return in;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFd.close();
+    }
+}
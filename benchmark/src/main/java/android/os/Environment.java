@@ -0,0 +1,21 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Stand-in for the framework class, so the zip layer runs on a plain JVM.
+ * External storage is the directory named by the android.externalStorage
+ * system property, or the temporary directory.
+ */
+public class Environment {
+
+    public static final String MEDIA_MOUNTED = "mounted";
+
+    public static String getExternalStorageState() {
+        return MEDIA_MOUNTED;
+    }
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("android.externalStorage", System.getProperty("java.io.tmpdir")));
+    }
+}
@@ -0,0 +1,43 @@
+package android.os;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Stand-in for the framework class, so the zip layer runs on a plain JVM.
+ * Only read-only descriptors of regular files are supported.
+ */
+public class ParcelFileDescriptor implements Closeable {
+
+    public static final int MODE_READ_ONLY = 0x10000000;
+
+    private final FileInputStream mStream;
+
+    private ParcelFileDescriptor(File file) throws FileNotFoundException {
+        mStream = new FileInputStream(file);
+    }
+
+    public static ParcelFileDescriptor open(File file, int mode) throws FileNotFoundException {
+        if (mode != MODE_READ_ONLY) {
+            throw new IllegalArgumentException("only MODE_READ_ONLY is supported");
+        }
+        return new ParcelFileDescriptor(file);
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        try {
+            return mStream.getFD();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mStream.close();
+    }
+}
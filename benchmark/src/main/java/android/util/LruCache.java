@@ -0,0 +1,81 @@
+package android.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the framework class, so the zip layer runs on a plain JVM.
+ * Implements the subset of the API the zip layer uses, with the same
+ * eviction behaviour.
+ */
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> mMap = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private final int mMaxSize;
+    private int mSize;
+
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+    }
+
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    public final synchronized V get(K key) {
+        return mMap.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        mSize += sizeOf(key, value);
+        V previous = mMap.put(key, value);
+        if (null != previous) {
+            mSize -= sizeOf(key, previous);
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        V previous = mMap.remove(key);
+        if (null != previous) {
+            mSize -= sizeOf(key, previous);
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    public synchronized void trimToSize(int maxSize) {
+        Iterator<Map.Entry<K, V>> i = mMap.entrySet().iterator();
+        while (mSize > maxSize && i.hasNext()) {
+            Map.Entry<K, V> eldest = i.next();
+            i.remove();
+            mSize -= sizeOf(eldest.getKey(), eldest.getValue());
+            entryRemoved(true, eldest.getKey(), eldest.getValue(), null);
+        }
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized int size() {
+        return mSize;
+    }
+
+    public final synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    public final synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<K, V>(mMap);
+    }
+}
@@ -0,0 +1,118 @@
+package com.android.vending.expansion.zipfile.benchmark;
+
+import com.android.vending.expansion.zipfile.APKExpansionSupport;
+import com.android.vending.expansion.zipfile.ZipResourceFile;
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+import com.android.vending.expansion.zipfile.ZipResourceFileRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry lookup latency in a main file, a patch file overriding a tenth of
+ * its entries, and a number of content packs, merged the way ZipHelper
+ * merges them through {@link ZipResourceFileRegistry}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    static final int kNumNames = 4096; // power of two, see next()
+
+    @Param({"1000", "10000", "50000"})
+    public int entries;
+
+    // content packs merged in besides main and patch
+    @Param({"0", "8"})
+    public int packs;
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    private String[] mPaths;
+    private ZipResourceFile mMainAndPatch;
+    private ZipResourceFile mMerged;
+    private String[] mHitNames;
+    private String[] mMissNames;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void openArchives() throws IOException {
+        mPaths = new String[2 + packs];
+        mPaths[0] = SyntheticObb.get("org.storymaker.app", entries, 256, true, 1).getPath();
+        mPaths[1] = SyntheticObb.get("org.storymaker.app", entries / 10, 256, true, 2).getPath();
+        for (int i = 0; i < packs; i++) {
+            mPaths[2 + i] = SyntheticObb.get("pack" + i, entries, 256, true, 3 + i).getPath();
+        }
+
+        mMainAndPatch = APKExpansionSupport.getResourceZipFile(new String[] { mPaths[0], mPaths[1] });
+        ZipResourceFileRegistry.setCompactEntries(compact);
+        ZipResourceFileRegistry.clear();
+        mMerged = ZipResourceFileRegistry.getResourceZipFile(mPaths);
+
+        Random random = new Random(42);
+        mHitNames = new String[kNumNames];
+        mMissNames = new String[kNumNames];
+        for (int i = 0; i < kNumNames; i++) {
+            String packId = (packs == 0 || random.nextBoolean()) ? "org.storymaker.app" : "pack" + random.nextInt(packs);
+            mHitNames[i] = SyntheticObb.getEntryName(packId, random.nextInt(entries));
+            mMissNames[i] = SyntheticObb.getEntryName(packId, entries + random.nextInt(entries));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void clearRegistry() {
+        ZipResourceFileRegistry.clear();
+        ZipResourceFileRegistry.setCompactEntries(false);
+    }
+
+    private int next() {
+        return mNext++ & (kNumNames - 1);
+    }
+
+    @Benchmark
+    public ZipEntryRO hit() {
+        return mMerged.getEntry(mHitNames[next()]);
+    }
+
+    @Benchmark
+    public ZipEntryRO miss() {
+        return mMerged.getEntry(mMissNames[next()]);
+    }
+
+    @Benchmark
+    public ZipEntryRO mainAndPatchHit() {
+        return mMainAndPatch.getEntry(mHitNames[next()]);
+    }
+
+    // what every uncached ZipHelper lookup pays to find the merged file
+    @Benchmark
+    public ZipResourceFile registry() throws IOException {
+        return ZipResourceFileRegistry.getResourceZipFile(mPaths);
+    }
+
+    @Benchmark
+    public ZipEntryRO[] prefix() {
+        return mMerged.getEntriesWithPrefix("org.storymaker.app/group_" + (next() % (entries / SyntheticObb.kGroupSize)) + "/");
+    }
+}
@@ -0,0 +1,65 @@
+package com.android.vending.expansion.zipfile.benchmark;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open an archive: reading the central directory, or the sidecar
+ * index when one has been written, into a hashed or compact entry table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    // false to delete the sidecar index before every open, as on first use
+    @Param({"false", "true"})
+    public boolean sidecarIndex;
+
+    private File mArchive;
+    private File mIndex;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        mArchive = SyntheticObb.get("org.storymaker.app", entries, 512, true, 1);
+        mIndex = new File(mArchive.getPath() + ".idx");
+        new ZipResourceFile(mArchive.getPath(), compact);
+    }
+
+    @Setup(Level.Invocation)
+    public void deleteIndex() {
+        if (!sidecarIndex) {
+            mIndex.delete();
+        }
+    }
+
+    @Benchmark
+    public ZipResourceFile open() throws IOException {
+        return new ZipResourceFile(mArchive.getPath(), compact);
+    }
+}
@@ -0,0 +1,89 @@
+package com.android.vending.expansion.zipfile.benchmark;
+
+import com.android.vending.expansion.zipfile.InflatedEntryCache;
+import com.android.vending.expansion.zipfile.ZipResourceFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open and read one whole entry through getInputStream. Divide the
+ * entry length by the score for throughput; run with -prof gc for the bytes
+ * allocated per read (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+    static final int kNumEntries = 64; // power of two, see read()
+
+    @Param({"1024", "65536", "1048576"})
+    public int entryLength;
+
+    @Param({"false", "true"})
+    public boolean deflated;
+
+    // stored entries: read from the archive mapping rather than a descriptor
+    @Param({"true", "false"})
+    public boolean mapStoredEntries;
+
+    // deflated entries: keep inflated copies, see InflatedEntryCache
+    @Param({"false", "true"})
+    public boolean inflatedCache;
+
+    private ZipResourceFile mResourceFile;
+    private String[] mNames;
+    private byte[] mBuffer = new byte[16 * 1024];
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void openArchive() throws IOException {
+        mResourceFile = new ZipResourceFile(SyntheticObb.get("org.storymaker.app", kNumEntries,
+                entryLength, deflated, 1).getPath());
+        mResourceFile.setMapStoredEntries(mapStoredEntries);
+        InflatedEntryCache.setMaxBytes(inflatedCache ? 64 * 1024 * 1024 : 0);
+        mNames = new String[kNumEntries];
+        for (int i = 0; i < kNumEntries; i++) {
+            mNames[i] = SyntheticObb.getEntryName("org.storymaker.app", i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void resetCache() {
+        InflatedEntryCache.setMaxBytes(InflatedEntryCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        InputStream in = mResourceFile.getInputStream(mNames[mNext++ & (kNumEntries - 1)]);
+        long total = 0;
+        try {
+            int count;
+            while ((count = in.read(mBuffer)) > 0) {
+                total += count;
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+}
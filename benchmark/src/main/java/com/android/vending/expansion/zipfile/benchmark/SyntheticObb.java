@@ -0,0 +1,118 @@
+package com.android.vending.expansion.zipfile.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes synthetic expansion archives laid out like content packs: JSON
+ * files under a pack directory, in groups of {@link #kGroupSize}, with text
+ * that compresses about as well as real story paths.
+ *
+ * <p>Archives are written once to {@link #getDirectory} and named after
+ * their parameters, so every fork and every benchmark with the same
+ * parameters reuses them.
+ */
+final class SyntheticObb {
+
+    static final int kGroupSize = 100;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String[] kWords = {
+            "card", "story", "path", "clip", "audio", "video", "title", "narration",
+            "library", "template", "interview", "character", "action", "place", "signature"
+    };
+
+    private SyntheticObb() {
+    }
+
+    static File getDirectory() {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "liger-benchmark");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("could not create " + dir.getPath());
+        }
+        return dir;
+    }
+
+    /**
+     * @return the name of entry i of a pack
+     */
+    static String getEntryName(String packId, int i) {
+        return packId + "/group_" + (i / kGroupSize) + "/story_path_" + i + ".json";
+    }
+
+    /**
+     * Returns an archive of numEntries entries named by
+     * {@link #getEntryName}, writing it if it doesn't exist yet.
+     *
+     * @param packId the top level directory of the entries
+     * @param numEntries the number of entries
+     * @param entryLength the uncompressed length of each entry
+     * @param deflated true to deflate the entries, false to store them
+     * @param seed varies the contents, so main and patch files differ
+     */
+    static File get(String packId, int numEntries, int entryLength, boolean deflated, long seed) throws IOException {
+        File file = new File(getDirectory(), packId + "." + numEntries + "." + entryLength + "."
+                + (deflated ? "deflated" : "stored") + "." + seed + ".obb");
+        if (file.isFile()) {
+            return file;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        Random random = new Random(seed);
+        CRC32 crc = new CRC32();
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+        try {
+            out.setLevel(9);
+            for (int i = 0; i < numEntries; i++) {
+                byte[] data = createJson(random, entryLength);
+                ZipEntry entry = new ZipEntry(getEntryName(packId, i));
+                if (deflated) {
+                    entry.setMethod(ZipEntry.DEFLATED);
+                } else {
+                    crc.reset();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(data);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("could not rename " + temp.getPath());
+        }
+        return file;
+    }
+
+    /*
+     * Card-like JSON of exactly the given length.
+     */
+    static byte[] createJson(Random random, int length) {
+        StringBuilder json = new StringBuilder(length + 64);
+        json.append("{\"cards\":[");
+        while (json.length() < length) {
+            json.append("{\"id\":\"").append(kWords[random.nextInt(kWords.length)]).append('_')
+                    .append(random.nextInt(1000)).append("\",\"text\":\"");
+            for (int i = 0; i < 8; i++) {
+                json.append(kWords[random.nextInt(kWords.length)]).append(' ');
+            }
+            json.append("\"},");
+        }
+        byte[] data = new byte[length];
+        byte[] text = json.toString().getBytes(UTF_8);
+        System.arraycopy(text, 0, data, 0, length);
+        return data;
+    }
+}
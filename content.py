@@ -54,6 +54,25 @@ def zip_content():
 
     os.system("cd liger-content/assets ; zip -n .mp4 -r zipped .")
 
+@cli.command()
+@click.argument('profile', type=click.Path(exists=True))
+def repack_content(profile):
+    """reorder zipped.zip by an access profile recorded with ZipAccessProfile: startup reads first, json stored and aligned, media last"""
+
+    zipfile_src = "lib/src/main/java/com/android/vending/expansion/zipfile"
+    os.system("mkdir -p build/repacker ; javac -d build/repacker %s/ZipAccessProfile.java %s/ZipRepacker.java" % (zipfile_src, zipfile_src))
+    os.system("java -cp build/repacker com.android.vending.expansion.zipfile.ZipRepacker liger-content/assets/zipped.zip %s liger-content/assets/repacked.zip" % profile)
+    os.system("mv liger-content/assets/repacked.zip liger-content/assets/zipped.zip")
+
+@cli.command()
+def embed_manifest():
+    """embed an entry table, template map and content metadata as the first entry of zipped.zip, run after zip_content/repack_content"""
+
+    zipfile_src = "lib/src/main/java/com/android/vending/expansion/zipfile"
+    os.system("mkdir -p build/repacker ; javac -d build/repacker %s/ZipManifestWriter.java" % zipfile_src)
+    os.system("java -cp build/repacker com.android.vending.expansion.zipfile.ZipManifestWriter liger-content/assets/zipped.zip liger-content/assets/manifested.zip")
+    os.system("mv liger-content/assets/manifested.zip liger-content/assets/zipped.zip")
+
 @cli.command()
 def adb_push_obb():
     """adb push to /sdcard/Android/<package>/obb"""
@@ -85,6 +104,8 @@ cli.add_command(pull)
 cli.add_command(push_strings)
 cli.add_command(update_strings)
 cli.add_command(zip_content)
+cli.add_command(repack_content)
+cli.add_command(embed_manifest)
 cli.add_command(adb_push)
 cli.add_command(adb_push_obb)
 cli.add_command(adb_push_files)
@@ -156,7 +156,7 @@ public abstract class APEZProvider extends ContentProvider {
                 if ( null == resourceFiles ) {
                     mAPKExtensionFile = APKExpansionSupport.getAPKExpansionZipFile(ctx, mainFileVersion, patchFileVersion);
                 } else {
-                    mAPKExtensionFile = APKExpansionSupport.getResourceZipFile(resourceFiles);
+                    mAPKExtensionFile = ZipResourceFileRegistry.getResourceZipFile(resourceFiles);
                 }
                 mInit = true;
                 return true;
@@ -180,7 +180,16 @@ public abstract class APEZProvider extends ContentProvider {
 		if ( path.startsWith("/") ) {
 			path = path.substring(1);
 		}
-		return mAPKExtensionFile.getAssetFileDescriptor(path);		
+		// stored entries are handed out as an fd, offset and length into the
+		// archive so players can seek without anything being extracted
+		AssetFileDescriptor afd = null;
+		if ( null != mAPKExtensionFile ) {
+			afd = mAPKExtensionFile.getAssetFileDescriptor(path);
+		}
+		if ( null == afd ) {
+			throw new FileNotFoundException("No stored entry for " + path);
+		}
+		return afd;
 	}
 
 	@Override
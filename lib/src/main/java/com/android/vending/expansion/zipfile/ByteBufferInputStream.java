@@ -0,0 +1,83 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream over the remaining bytes of a ByteBuffer. Reads copy
+ * straight out of the buffer, so a stream over a slice of a mapped archive
+ * costs no system calls.
+ *
+ * <p>The stream owns the buffer's position; pass a duplicate or slice if the
+ * buffer is shared.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer mBuffer;
+    private int mMark = -1;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * @return the underlying buffer, positioned at the next unread byte
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int remaining = mBuffer.remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        if (len > remaining) {
+            len = remaining;
+        }
+        mBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, mBuffer.remaining());
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark < 0 ? 0 : mMark);
+    }
+}
@@ -0,0 +1,99 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream over a region of a FileChannel that uses positional reads
+ * only, so any number of streams can share one channel across threads
+ * without contending for its file position.
+ *
+ * <p>A stream opened by {@link ZipResourceFile.SharedArchive#openRegion}
+ * holds a reference to the archive until it is closed.
+ */
+class ChannelRegionInputStream extends InputStream {
+
+    private final FileChannel mChannel;
+    private long mPosition;
+    private final long mEnd;
+
+    // extra zero bytes reported after the region, for raw Inflaters
+    private int mPadding;
+
+    // released on close, null once released or if the channel isn't shared
+    private ZipResourceFile.SharedArchive mArchive;
+
+    ChannelRegionInputStream(FileChannel channel, long start, long length, int padding) {
+        this(channel, start, length, padding, null);
+    }
+
+    ChannelRegionInputStream(FileChannel channel, long start, long length, int padding,
+            ZipResourceFile.SharedArchive archive) {
+        mChannel = channel;
+        mPosition = start;
+        mEnd = start + length;
+        mPadding = padding;
+        mArchive = archive;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = mEnd - mPosition;
+        if (remaining <= 0) {
+            if (mPadding > 0) {
+                mPadding--;
+                b[off] = 0;
+                return 1;
+            }
+            return -1;
+        }
+        if (len > remaining) {
+            len = (int) remaining;
+        }
+        int count = mChannel.read(ByteBuffer.wrap(b, off, len), mPosition);
+        if (count < 0) {
+            throw new EOFException("archive truncated at " + mPosition);
+        }
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, mEnd - mPosition);
+        mPosition += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition + mPadding);
+    }
+
+    @Override
+    public void close() {
+        ZipResourceFile.SharedArchive archive;
+        synchronized (this) {
+            archive = mArchive;
+            mArchive = null;
+        }
+        if (null != archive) {
+            archive.release();
+        }
+    }
+}
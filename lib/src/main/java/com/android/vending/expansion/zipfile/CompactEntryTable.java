@@ -0,0 +1,448 @@
+package com.android.vending.expansion.zipfile;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable entry table of one or more merged archives, held in primitive
+ * columns instead of one {@link ZipEntryRO} object per entry.
+ *
+ * <p>Entry names are stored back to back as UTF-8 in a single byte pool and
+ * sorted in unsigned byte order, so lookups are a binary search with no
+ * hashing and no per-entry objects. Everything else lives in parallel
+ * arrays indexed by entry position. Merging tables resolves patch precedence
+ * once: an entry of the later table replaces an entry of the same name in the
+ * earlier one. ZipEntryRO instances are only created for the entries a
+ * caller actually asks for.
+ */
+class CompactEntryTable {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // bytes of an index record after the name: method, time, CRC, sizes and offsets
+    static final int kRecordLen = 2 + 4 + 4 + 8 + 8 + 8 + 8;
+
+    static final CompactEntryTable EMPTY = new CompactEntryTable(new File[0], new String[0], 0, 0);
+
+    // archives referenced by mArchive, in patch order
+    final File[] mFiles;
+    final String[] mZipFileNames;
+
+    final int mCount;
+
+    // names, entry i is mNamePool[mNameStart[i] .. mNameStart[i + 1])
+    final byte[] mNamePool;
+    final int[] mNameStart;
+
+    final short[] mArchive;
+    final short[] mMethod;
+    final int[] mWhenModified;
+    final int[] mCRC32;
+    final long[] mCompressedLength;
+    final long[] mUncompressedLength;
+    final long[] mLocalHdrOffset;
+    final long[] mOffset;
+
+    // entry positions ordered by basename, built on first use
+    private int[] mBasenameOrder;
+
+    private CompactEntryTable(File[] files, String[] zipFileNames, int count, int poolSize) {
+        mFiles = files;
+        mZipFileNames = zipFileNames;
+        mCount = count;
+        mNamePool = new byte[poolSize];
+        mNameStart = new int[count + 1];
+        mArchive = new short[count];
+        mMethod = new short[count];
+        mWhenModified = new int[count];
+        mCRC32 = new int[count];
+        mCompressedLength = new long[count];
+        mUncompressedLength = new long[count];
+        mLocalHdrOffset = new long[count];
+        mOffset = new long[count];
+    }
+
+    /**
+     * Builds a table from the entries of a single archive, as returned by a
+     * central directory scan or an index file.
+     */
+    static CompactEntryTable build(File file, String zipFileName, ArrayList<ZipEntryRO> entries) {
+        final byte[][] names = new byte[entries.size()][];
+        Integer[] order = new Integer[names.length];
+        int poolSize = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = entries.get(i).mFileName.getBytes(UTF_8);
+            poolSize += names[i].length;
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareNames(names[lhs], 0, names[lhs].length, names[rhs], 0, names[rhs].length);
+            }
+        });
+
+        // drop duplicate names within the archive, the last one wins as in a HashMap
+        int count = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i + 1 < order.length && Arrays.equals(names[order[i]], names[order[i + 1]])) {
+                order[i] = null;
+            } else {
+                count++;
+            }
+        }
+
+        CompactEntryTable table = new CompactEntryTable(new File[] { file }, new String[] { zipFileName }, count, poolSize);
+        int entry = 0;
+        int pool = 0;
+        for (Integer i : order) {
+            if (null == i) {
+                continue;
+            }
+            ZipEntryRO ze = entries.get(i);
+            table.mNameStart[entry] = pool;
+            System.arraycopy(names[i], 0, table.mNamePool, pool, names[i].length);
+            pool += names[i].length;
+            table.mMethod[entry] = (short) ze.mMethod;
+            table.mWhenModified[entry] = (int) ze.mWhenModified;
+            table.mCRC32[entry] = (int) ze.mCRC32;
+            table.mCompressedLength[entry] = ze.mCompressedLength;
+            table.mUncompressedLength[entry] = ze.mUncompressedLength;
+            table.mLocalHdrOffset[entry] = ze.mLocalHdrOffset;
+            table.mOffset[entry] = ze.mOffset;
+            entry++;
+        }
+        table.mNameStart[entry] = pool;
+        return table;
+    }
+
+    /**
+     * Builds a table from the records of an index file, positioned at the
+     * entry count, without creating an object per entry.
+     *
+     * @return the table, or null if the names aren't strictly in table order
+     * @throws java.nio.BufferUnderflowException if the records are truncated
+     */
+    static CompactEntryTable read(File file, String zipFileName, ByteBuffer buf) {
+        int count = buf.getInt();
+
+        // sizes the name pool, then fills the columns
+        int records = buf.position();
+        int poolSize = 0;
+        for (int i = 0; i < count; i++) {
+            int nameLength = buf.getShort() & 0xffff;
+            poolSize += nameLength;
+            buf.position(buf.position() + nameLength + kRecordLen);
+        }
+        buf.position(records);
+
+        CompactEntryTable table = new CompactEntryTable(new File[] { file }, new String[] { zipFileName }, count, poolSize);
+        int pool = 0;
+        for (int i = 0; i < count; i++) {
+            int nameLength = buf.getShort() & 0xffff;
+            table.mNameStart[i] = pool;
+            buf.get(table.mNamePool, pool, nameLength);
+            pool += nameLength;
+            if (i > 0 && compareNames(table.mNamePool, table.mNameStart[i - 1], table.mNameStart[i],
+                    table.mNamePool, table.mNameStart[i], pool) >= 0) {
+                return null;
+            }
+            table.mMethod[i] = buf.getShort();
+            table.mWhenModified[i] = buf.getInt();
+            table.mCRC32[i] = buf.getInt();
+            table.mCompressedLength[i] = buf.getLong();
+            table.mUncompressedLength[i] = buf.getLong();
+            table.mLocalHdrOffset[i] = buf.getLong();
+            table.mOffset[i] = buf.getLong();
+        }
+        table.mNameStart[count] = pool;
+        return table;
+    }
+
+    /**
+     * Merges two tables in a single pass. Where both hold an entry of the
+     * same name, the entry from patch is kept.
+     */
+    static CompactEntryTable merge(CompactEntryTable base, CompactEntryTable patch) {
+        int count = 0;
+        int poolSize = 0;
+        int b = 0;
+        int p = 0;
+        while (b < base.mCount || p < patch.mCount) {
+            int cmp = compare(base, b, patch, p);
+            if (cmp < 0) {
+                poolSize += base.nameLength(b++);
+            } else {
+                if (cmp == 0) {
+                    b++;
+                }
+                poolSize += patch.nameLength(p++);
+            }
+            count++;
+        }
+
+        int archives = base.mFiles.length;
+        File[] files = Arrays.copyOf(base.mFiles, archives + patch.mFiles.length);
+        System.arraycopy(patch.mFiles, 0, files, archives, patch.mFiles.length);
+        String[] zipFileNames = Arrays.copyOf(base.mZipFileNames, archives + patch.mZipFileNames.length);
+        System.arraycopy(patch.mZipFileNames, 0, zipFileNames, archives, patch.mZipFileNames.length);
+
+        CompactEntryTable table = new CompactEntryTable(files, zipFileNames, count, poolSize);
+        int entry = 0;
+        int pool = 0;
+        b = 0;
+        p = 0;
+        while (b < base.mCount || p < patch.mCount) {
+            int cmp = compare(base, b, patch, p);
+            if (cmp < 0) {
+                pool = table.copyEntry(entry++, pool, base, b++, 0);
+            } else {
+                if (cmp == 0) {
+                    b++;
+                }
+                pool = table.copyEntry(entry++, pool, patch, p++, archives);
+            }
+        }
+        table.mNameStart[entry] = pool;
+        return table;
+    }
+
+    /*
+     * Orders entry b of base against entry p of patch, treating a table that
+     * has run out as greater than anything.
+     */
+    private static int compare(CompactEntryTable base, int b, CompactEntryTable patch, int p) {
+        if (b >= base.mCount) {
+            return 1;
+        }
+        if (p >= patch.mCount) {
+            return -1;
+        }
+        return compareNames(base.mNamePool, base.mNameStart[b], base.mNameStart[b + 1],
+                patch.mNamePool, patch.mNameStart[p], patch.mNameStart[p + 1]);
+    }
+
+    private int copyEntry(int entry, int pool, CompactEntryTable from, int i, int archiveShift) {
+        int length = from.nameLength(i);
+        mNameStart[entry] = pool;
+        System.arraycopy(from.mNamePool, from.mNameStart[i], mNamePool, pool, length);
+        mArchive[entry] = (short) (from.mArchive[i] + archiveShift);
+        mMethod[entry] = from.mMethod[i];
+        mWhenModified[entry] = from.mWhenModified[i];
+        mCRC32[entry] = from.mCRC32[i];
+        mCompressedLength[entry] = from.mCompressedLength[i];
+        mUncompressedLength[entry] = from.mUncompressedLength[i];
+        mLocalHdrOffset[entry] = from.mLocalHdrOffset[i];
+        mOffset[entry] = from.mOffset[i];
+        return pool + length;
+    }
+
+    static int compareNames(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        while (aStart < aEnd && bStart < bEnd) {
+            int diff = (a[aStart++] & 0xff) - (b[bStart++] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    private int nameLength(int i) {
+        return mNameStart[i + 1] - mNameStart[i];
+    }
+
+    String getName(int i) {
+        return new String(mNamePool, mNameStart[i], nameLength(i), UTF_8);
+    }
+
+    /*
+     * Position of the first entry whose name is not less than key.
+     */
+    private int lowerBound(byte[] key, int keyLength, int from) {
+        int lo = from;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareNames(mNamePool, mNameStart[mid], mNameStart[mid + 1], key, 0, keyLength) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean startsWith(int i, byte[] prefix) {
+        if (nameLength(i) < prefix.length) {
+            return false;
+        }
+        int start = mNameStart[i];
+        for (int j = 0; j < prefix.length; j++) {
+            if (mNamePool[start + j] != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the named entry, or -1 if there is none
+     */
+    int indexOf(String name) {
+        byte[] key = name.getBytes(UTF_8);
+        int i = lowerBound(key, key.length, 0);
+        if (i < mCount && compareNames(mNamePool, mNameStart[i], mNameStart[i + 1], key, 0, key.length) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a ZipEntryRO for the entry at position i. The object is not
+     * retained by the table.
+     */
+    ZipEntryRO getEntry(int i) {
+        int archive = mArchive[i];
+        ZipEntryRO ze = new ZipEntryRO(mZipFileNames[archive], mFiles[archive], getName(i));
+        ze.mMethod = mMethod[i] & 0xffff;
+        ze.mWhenModified = mWhenModified[i] & 0xffffffffL;
+        ze.mCRC32 = mCRC32[i] & 0xffffffffL;
+        ze.mCompressedLength = mCompressedLength[i];
+        ze.mUncompressedLength = mUncompressedLength[i];
+        ze.mLocalHdrOffset = mLocalHdrOffset[i];
+        ze.mOffset = mOffset[i];
+        return ze;
+    }
+
+    ZipEntryRO getEntry(String name) {
+        int i = indexOf(name);
+        return (i < 0) ? null : getEntry(i);
+    }
+
+    private ZipEntryRO[] getEntries(int start, int end) {
+        ZipEntryRO[] entries = new ZipEntryRO[end - start];
+        for (int i = start; i < end; i++) {
+            entries[i - start] = getEntry(i);
+        }
+        return entries;
+    }
+
+    ZipEntryRO[] getAllEntries() {
+        return getEntries(0, mCount);
+    }
+
+    /**
+     * @return the entries directly within path (not in subdirectories)
+     */
+    ZipEntryRO[] getEntriesAt(String path) {
+        byte[] prefix = path.getBytes(UTF_8);
+        byte[] key = new byte[0xffff];
+        ArrayList<ZipEntryRO> result = new ArrayList<ZipEntryRO>();
+        int i = lowerBound(prefix, prefix.length, 0);
+        while (i < mCount && startsWith(i, prefix)) {
+            int start = mNameStart[i];
+            int slash = -1;
+            for (int j = start + prefix.length; j < mNameStart[i + 1]; j++) {
+                if (mNamePool[j] == '/') {
+                    slash = j;
+                    break;
+                }
+            }
+            if (-1 == slash) {
+                result.add(getEntry(i));
+                i++;
+            } else {
+                // skip the whole subdirectory; '0' is the byte after '/'
+                int keyLength = slash - start;
+                System.arraycopy(mNamePool, start, key, 0, keyLength);
+                key[keyLength++] = '0';
+                i = lowerBound(key, keyLength, i + 1);
+            }
+        }
+        return result.toArray(new ZipEntryRO[result.size()]);
+    }
+
+    /**
+     * @return every entry whose name starts with prefix
+     */
+    ZipEntryRO[] getEntriesWithPrefix(String prefix) {
+        byte[] key = prefix.getBytes(UTF_8);
+        int start = lowerBound(key, key.length, 0);
+        int lo = start;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startsWith(mid, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return getEntries(start, lo);
+    }
+
+    private int basenameStart(int i) {
+        int start = mNameStart[i];
+        for (int j = mNameStart[i + 1] - 1; j >= start; j--) {
+            if (mNamePool[j] == '/') {
+                return j + 1;
+            }
+        }
+        return start;
+    }
+
+    private synchronized int[] getBasenameOrder() {
+        if (null == mBasenameOrder) {
+            Integer[] order = new Integer[mCount];
+            for (int i = 0; i < mCount; i++) {
+                order[i] = i;
+            }
+            // stable, so equal basenames stay in full name order
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer lhs, Integer rhs) {
+                    return compareNames(mNamePool, basenameStart(lhs), mNameStart[lhs + 1],
+                            mNamePool, basenameStart(rhs), mNameStart[rhs + 1]);
+                }
+            });
+            mBasenameOrder = new int[mCount];
+            for (int i = 0; i < mCount; i++) {
+                mBasenameOrder[i] = order[i];
+            }
+        }
+        return mBasenameOrder;
+    }
+
+    /**
+     * @return the first entry, in name order, whose last path segment is
+     *         basename, or null if there is none
+     */
+    ZipEntryRO findEntryByBasename(String basename) {
+        int[] order = getBasenameOrder();
+        byte[] key = basename.getBytes(UTF_8);
+        int lo = 0;
+        int hi = mCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int i = order[mid];
+            if (compareNames(mNamePool, basenameStart(i), mNameStart[i + 1], key, 0, key.length) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < mCount) {
+            int i = order[lo];
+            if (compareNames(mNamePool, basenameStart(i), mNameStart[i + 1], key, 0, key.length) == 0) {
+                return getEntry(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,235 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.Log;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk LRU cache of entries extracted from expansion archives, for
+ * consumers that need a real file rather than a stream or descriptor.
+ *
+ * <p>Files are named by a digest of the archive they came from, the entry
+ * name and its CRC32, so an entry that is overridden by a patch or changed
+ * by a new download is extracted again under a new name. A hit only
+ * consults the resource file's in-memory directory; the archive itself is
+ * not read. The cache is bounded by the total size of the files it holds
+ * and evicts the least recently used ones first. Recency is kept in the
+ * files' modification times so it survives a restart.
+ */
+public class ExtractedEntryCache {
+
+    static final String LOG_TAG = "zipextract";
+    static final boolean LOGV = false;
+
+    static final String kTempSuffix = ".tmp";
+    static final int kCopyBufferLen = 64 * 1024;
+
+    static private final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private long mMaxBytes;
+    private long mTotalBytes;
+
+    // file name -> file length, least recently used first
+    private final LinkedHashMap<String, Long> mFiles = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * @param directory the directory to keep extracted files in; it is created
+     *            if necessary and should not be shared with anything else
+     * @param maxBytes the total size of extracted files to keep
+     */
+    public ExtractedEntryCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "could not create " + mDirectory.getPath());
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File lhs, File rhs) {
+                    long l = lhs.lastModified();
+                    long r = rhs.lastModified();
+                    return (l < r) ? -1 : ((l == r) ? 0 : 1);
+                }
+            });
+            for (File file : files) {
+                if (file.getName().endsWith(kTempSuffix)) {
+                    // left behind by an interrupted extraction
+                    file.delete();
+                } else if (file.isFile()) {
+                    mFiles.put(file.getName(), file.length());
+                    mTotalBytes += file.length();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Sets the byte budget, evicting files as needed to fit it.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * @return the directory extracted files are kept in
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Returns a file holding the contents of the given asset, extracting it
+     * if it isn't already cached. The file may be evicted by later calls, so
+     * callers should not hold on to it longer than they need to.
+     *
+     * @param resourceFile the resource file containing the asset
+     * @param assetPath the path of the asset within the resource file
+     * @return the extracted file, or null if the asset isn't present
+     * @throws IOException if the asset could not be extracted
+     */
+    public File getFile(ZipResourceFile resourceFile, String assetPath) throws IOException {
+        ZipEntryRO entry = resourceFile.getEntry(assetPath);
+        if (null == entry) {
+            return null;
+        }
+
+        String name = getFileName(entry);
+        File file = new File(mDirectory, name);
+
+        synchronized (this) {
+            if (null != mFiles.get(name)) {
+                if (file.isFile()) {
+                    file.setLastModified(System.currentTimeMillis());
+                    return file;
+                }
+                // removed from underneath us
+                mTotalBytes -= mFiles.remove(name);
+            }
+        }
+
+        // extract outside the lock so hits aren't held up by a large copy
+        File tempFile = File.createTempFile(name, kTempSuffix, mDirectory);
+        InputStream in = resourceFile.getInputStream(assetPath);
+        if (null == in) {
+            tempFile.delete();
+            return null;
+        }
+        FileOutputStream out = null;
+        long length = 0;
+        try {
+            out = new FileOutputStream(tempFile);
+            byte[] buf = new byte[kCopyBufferLen];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+                length += read;
+            }
+            out.close();
+            out = null;
+        } catch (IOException ioe) {
+            tempFile.delete();
+            throw ioe;
+        } finally {
+            in.close();
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (null != mFiles.get(name) && file.isFile()) {
+                // another thread extracted it first
+                tempFile.delete();
+                return file;
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("could not move extracted " + assetPath + " to " + file.getPath());
+            }
+            mFiles.put(name, length);
+            mTotalBytes += length;
+            if (LOGV) {
+                Log.v(LOG_TAG, "+++ extracted " + assetPath + " (" + length + " bytes) to " + file.getPath());
+            }
+            trimToSize();
+            return file;
+        }
+    }
+
+    /**
+     * Deletes every extracted file.
+     */
+    public synchronized void clear() {
+        for (String name : mFiles.keySet()) {
+            new File(mDirectory, name).delete();
+        }
+        mFiles.clear();
+        mTotalBytes = 0;
+    }
+
+    /*
+     * Evicts least recently used files until the total fits the budget. The
+     * most recently used file is always kept, even if it alone is over.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mFiles.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && mFiles.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> lru = it.next();
+            new File(mDirectory, lru.getKey()).delete();
+            mTotalBytes -= lru.getValue();
+            it.remove();
+            if (LOGV) {
+                Log.v(LOG_TAG, "--- evicted " + lru.getKey());
+            }
+        }
+    }
+
+    /*
+     * Digest of archive, name and CRC32, keeping the entry's extension so
+     * that consumers which sniff by name still recognize the file.
+     */
+    static String getFileName(ZipEntryRO entry) {
+        String key = entry.getZipFileName() + ":" + entry.mFileName + ":" + entry.mCRC32;
+        StringBuilder name = new StringBuilder();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8));
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+        } catch (NoSuchAlgorithmException nsae) {
+            // every platform provides SHA-1, but fall back rather than fail
+            name.append(Integer.toHexString(key.hashCode())).append('-').append(Long.toHexString(entry.mCRC32));
+        }
+
+        int slash = entry.mFileName.lastIndexOf('/');
+        int dot = entry.mFileName.lastIndexOf('.');
+        if (dot > slash + 1) {
+            name.append(entry.mFileName.substring(dot));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.LruCache;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+/**
+ * Process-wide LRU cache of the decompressed contents of deflated entries.
+ *
+ * <p>Entries are keyed by the archive they were read from, their name and
+ * their CRC32, so an entry that is overridden by a patch, or an archive that
+ * is replaced by a new download, never hits a stale value. The cache is
+ * bounded by the total number of decompressed bytes it holds.
+ */
+public class InflatedEntryCache {
+
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    // entries larger than this fraction of the budget are never cached
+    static final int kMaxEntryFraction = 8;
+
+    static private LruCache<String, byte[]> sCache = createCache(DEFAULT_MAX_BYTES);
+    static private int sMaxBytes = DEFAULT_MAX_BYTES;
+
+    static private LruCache<String, byte[]> createCache(int maxBytes) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        return new LruCache<String, byte[]>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    static String getKey(ZipEntryRO entry) {
+        return entry.getZipFileName() + ":" + entry.mFileName + ":" + entry.mCRC32;
+    }
+
+    /**
+     * Sets the byte budget of the cache, dropping anything already cached.
+     *
+     * @param maxBytes the maximum number of decompressed bytes to hold, or 0
+     *                 to disable caching
+     */
+    static public synchronized void setMaxBytes(int maxBytes) {
+        sMaxBytes = maxBytes;
+        sCache = createCache(maxBytes);
+    }
+
+    /**
+     * @return true if an entry of the given decompressed size would be kept
+     */
+    static synchronized boolean isCacheable(ZipEntryRO entry) {
+        return null != sCache && entry.mUncompressedLength <= sMaxBytes / kMaxEntryFraction;
+    }
+
+    static synchronized byte[] get(ZipEntryRO entry) {
+        return (null == sCache) ? null : sCache.get(getKey(entry));
+    }
+
+    static synchronized void put(ZipEntryRO entry, byte[] data) {
+        if (null != sCache) {
+            sCache.put(getKey(entry), data);
+        }
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    static public synchronized void clear() {
+        if (null != sCache) {
+            sCache.evictAll();
+        }
+    }
+}
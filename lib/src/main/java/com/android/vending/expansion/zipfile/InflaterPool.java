@@ -0,0 +1,82 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Process-wide pool of raw (nowrap) Inflaters for reading deflated archive
+ * entries from any thread. An Inflater holds native zlib state, so reusing
+ * them avoids allocating that state for every compressed read.
+ */
+class InflaterPool {
+
+    static final int kMaxPooled = 4;
+
+    static private final ArrayDeque<Inflater> sInflaters = new ArrayDeque<Inflater>();
+
+    static synchronized Inflater obtain() {
+        Inflater inflater = sInflaters.poll();
+        return (null == inflater) ? new Inflater(true) : inflater;
+    }
+
+    static void release(Inflater inflater) {
+        inflater.reset();
+        synchronized (InflaterPool.class) {
+            if (sInflaters.size() < kMaxPooled) {
+                sInflaters.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * Wraps a stream of raw deflate data. The inflater goes back to the pool
+     * when the returned stream is closed.
+     *
+     * @param compressed the entry's compressed bytes, followed by one dummy
+     *            byte as a raw Inflater expects
+     * @param uncompressedLength used to size the read buffer
+     */
+    static InputStream createInputStream(InputStream compressed, long uncompressedLength) {
+        int bufferSize = (int) Math.max(512, Math.min(uncompressedLength, 8192));
+        final long length = uncompressedLength;
+        return new InflaterInputStream(compressed, obtain(), bufferSize) {
+            private boolean mClosed;
+            private long mRead;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    mRead += count;
+                }
+                return count;
+            }
+
+            /*
+             * Callers size their buffers from available(), so report what is
+             * left of the entry rather than InflaterInputStream's 0 or 1.
+             */
+            @Override
+            public int available() throws IOException {
+                if (mClosed) {
+                    return 0;
+                }
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - mRead));
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!mClosed) {
+                    mClosed = true;
+                    super.close();
+                    release(inf);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,96 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Records which entries are read from expansion archives, in the order they
+ * are first read, so that {@link ZipRepacker} can lay an archive out to
+ * match.
+ *
+ * <p>Recording is off by default and costs one volatile read per access when
+ * off. A profile is a UTF-8 text file with one entry name per line; lines
+ * that are blank or start with '#' are ignored, so profiles can also be
+ * written or edited by hand. Like {@link ZipRepacker} this class only uses
+ * the standard library, so both can be run on a build machine.
+ */
+public class ZipAccessProfile {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static private volatile boolean sRecording = false;
+    static private final LinkedHashSet<String> sAccessed = new LinkedHashSet<String>();
+
+    /**
+     * Starts recording accesses, discarding anything recorded before.
+     */
+    static public synchronized void start() {
+        sAccessed.clear();
+        sRecording = true;
+    }
+
+    /**
+     * Stops recording.
+     *
+     * @return the entry names read since {@link #start}, in first-read order
+     */
+    static public synchronized ArrayList<String> stop() {
+        sRecording = false;
+        return new ArrayList<String>(sAccessed);
+    }
+
+    static void record(String assetPath) {
+        if (sRecording) {
+            synchronized (ZipAccessProfile.class) {
+                if (sRecording) {
+                    sAccessed.add(assetPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a profile, one entry name per line.
+     */
+    static public void write(File profileFile, ArrayList<String> entryNames) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(profileFile), UTF_8);
+        try {
+            out.write("# entries in first-read order\n");
+            for (String entryName : entryNames) {
+                out.write(entryName);
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a profile written by {@link #write} or by hand.
+     */
+    static public ArrayList<String> read(File profileFile) throws IOException {
+        ArrayList<String> entryNames = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(profileFile), UTF_8));
+        try {
+            String line;
+            while (null != (line = in.readLine())) {
+                line = line.trim();
+                if (line.length() > 0 && line.charAt(0) != '#') {
+                    entryNames.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return entryNames;
+    }
+}
@@ -0,0 +1,133 @@
+package com.android.vending.expansion.zipfile;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorted views over the entries of a {@link ZipResourceFile}, built once per
+ * resource file. Directory listings, prefix queries and basename lookups are
+ * answered by binary search instead of a scan of every entry.
+ */
+class ZipDirectoryIndex {
+
+    // entries sorted by full name
+    private final ZipEntryRO[] mEntries;
+
+    // basenames sorted, each pointing back into mEntries
+    private final String[] mBasenames;
+    private final int[] mBasenameEntries;
+
+    ZipDirectoryIndex(ZipEntryRO[] entries) {
+        mEntries = entries;
+        Arrays.sort(mEntries, new Comparator<ZipEntryRO>() {
+            @Override
+            public int compare(ZipEntryRO lhs, ZipEntryRO rhs) {
+                return lhs.mFileName.compareTo(rhs.mFileName);
+            }
+        });
+
+        final String[] basenames = new String[mEntries.length];
+        Integer[] order = new Integer[mEntries.length];
+        for (int i = 0; i < mEntries.length; i++) {
+            String name = mEntries[i].mFileName;
+            basenames[i] = name.substring(name.lastIndexOf('/') + 1);
+            order[i] = i;
+        }
+        // stable, so equal basenames stay in full name order
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return basenames[lhs].compareTo(basenames[rhs]);
+            }
+        });
+
+        mBasenames = new String[mEntries.length];
+        mBasenameEntries = new int[mEntries.length];
+        for (int i = 0; i < order.length; i++) {
+            mBasenames[i] = basenames[order[i]];
+            mBasenameEntries[i] = order[i];
+        }
+    }
+
+    /*
+     * Index of the first entry whose name is not less than key.
+     */
+    private int lowerBound(String key, int from) {
+        int lo = from;
+        int hi = mEntries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mEntries[mid].mFileName.compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the entries directly within path (not in subdirectories),
+     *         in name order
+     */
+    ZipEntryRO[] getEntriesAt(String path) {
+        ArrayList<ZipEntryRO> result = new ArrayList<ZipEntryRO>();
+        int length = path.length();
+        int i = lowerBound(path, 0);
+        while (i < mEntries.length && mEntries[i].mFileName.startsWith(path)) {
+            String name = mEntries[i].mFileName;
+            int slash = name.indexOf('/', length);
+            if (-1 == slash) {
+                result.add(mEntries[i]);
+                i++;
+            } else {
+                // skip the whole subdirectory; '0' is the character after '/'
+                i = lowerBound(name.substring(0, slash) + '0', i + 1);
+            }
+        }
+        return result.toArray(new ZipEntryRO[result.size()]);
+    }
+
+    /**
+     * @return every entry whose name starts with prefix, in name order
+     */
+    ZipEntryRO[] getEntriesWithPrefix(String prefix) {
+        int start = lowerBound(prefix, 0);
+
+        // names with the prefix are contiguous from start, search for the end
+        int lo = start;
+        int hi = mEntries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mEntries[mid].mFileName.startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Arrays.copyOfRange(mEntries, start, lo);
+    }
+
+    /**
+     * @return the first entry, in name order, whose last path segment is
+     *         basename, or null if there is none
+     */
+    ZipEntryRO findEntryByBasename(String basename) {
+        int i = Arrays.binarySearch(mBasenames, basename);
+        if (i < 0) {
+            return null;
+        }
+        // binarySearch may land on any of several equal basenames
+        while (i > 0 && mBasenames[i - 1].equals(basename)) {
+            i--;
+        }
+        return mEntries[mBasenameEntries[i]];
+    }
+
+    ZipEntryRO[] getAllEntries() {
+        return mEntries.clone();
+    }
+}
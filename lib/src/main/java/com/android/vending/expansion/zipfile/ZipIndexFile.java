@@ -0,0 +1,266 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.Log;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact binary index of an archive's entries, stored next to the archive.
+ *
+ * <p>Building the entry table of a {@link ZipResourceFile} means walking the
+ * central directory and reading the local header of every entry to find its
+ * data offset. The index records the result of that walk (entry names in
+ * unsigned UTF-8 byte order with their data offsets, methods, sizes and CRCs)
+ * so the next launch can map one small file instead. An index is only used if
+ * the archive length and modification time it was built from still match.
+ *
+ * <p>The index is read eagerly. A compact resource file copies it column by
+ * column into a {@link CompactEntryTable}, whose binary search works in the
+ * same order, without creating an object per entry; a hashed one still
+ * creates a {@link ZipEntryRO}, a name and a map node per entry, so the index
+ * only saves it the local header reads.
+ */
+public class ZipIndexFile {
+
+    static final String LOG_TAG = "zipidx";
+    static final boolean LOGV = false;
+
+    public static final String SUFFIX = ".idx";
+
+    static final int kIndexSignature = 0x5a494458; // "ZIDX"
+    static final int kIndexVersion = 2;
+    static final int kIndexHeaderLen = 28; // signature, version, length, mtime, count
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static File getIndexFile(File archive) {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    /**
+     * Reads the entries of an archive from its index file.
+     *
+     * @param archive the archive the index was built from
+     * @param zipFileName the name to record in the returned entries
+     * @return the entries, or null if there is no usable index for the
+     *         archive in its current state
+     */
+    static ArrayList<ZipEntryRO> read(File archive, String zipFileName) {
+        ByteBuffer map = map(archive);
+        if (null == map) {
+            return null;
+        }
+        try {
+            int numEntries = map.getInt();
+            ArrayList<ZipEntryRO> entries = new ArrayList<ZipEntryRO>(numEntries);
+            byte[] tempBuf = new byte[0xffff];
+
+            for (int i = 0; i < numEntries; i++) {
+                entries.add(readEntry(map, archive, zipFileName, tempBuf));
+            }
+
+            if (LOGV) {
+                Log.v(LOG_TAG, "+++ read " + numEntries + " entries from " + getIndexFile(archive).getPath());
+            }
+            return entries;
+        } catch (RuntimeException re) {
+            // BufferUnderflowException from a truncated index
+            Log.w(LOG_TAG, "corrupt index " + getIndexFile(archive).getPath() + ": " + re.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the entries of an archive from its index file straight into a
+     * compact table, without an object per entry.
+     *
+     * @param archive the archive the index was built from
+     * @param zipFileName the name to record in entries looked up in the table
+     * @return the table, or null if there is no usable index for the archive
+     *         in its current state
+     */
+    static CompactEntryTable readTable(File archive, String zipFileName) {
+        ByteBuffer map = map(archive);
+        if (null == map) {
+            return null;
+        }
+        try {
+            CompactEntryTable table = CompactEntryTable.read(archive, zipFileName, map);
+            if (null == table) {
+                Log.w(LOG_TAG, "unsorted index " + getIndexFile(archive).getPath());
+            } else if (LOGV) {
+                Log.v(LOG_TAG, "+++ mapped " + table.mCount + " entries from " + getIndexFile(archive).getPath());
+            }
+            return table;
+        } catch (RuntimeException re) {
+            // BufferUnderflowException from a truncated index
+            Log.w(LOG_TAG, "corrupt index " + getIndexFile(archive).getPath() + ": " + re.getMessage());
+        }
+        return null;
+    }
+
+    /*
+     * Maps the index of an archive, positioned at its entry count, or returns
+     * null if it doesn't exist or was built from another state of the archive.
+     * The mapping stays valid after the file is closed.
+     */
+    private static ByteBuffer map(File archive) {
+        File indexFile = getIndexFile(archive);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(indexFile, "r");
+            MappedByteBuffer map = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+
+            if (map.limit() < kIndexHeaderLen
+                    || map.getInt() != kIndexSignature
+                    || map.getInt() != kIndexVersion) {
+                Log.w(LOG_TAG, "unrecognized index " + indexFile.getPath());
+                return null;
+            }
+            if (map.getLong() != archive.length() || map.getLong() != archive.lastModified()) {
+                if (LOGV) {
+                    Log.v(LOG_TAG, "+++ stale index " + indexFile.getPath());
+                }
+                return null;
+            }
+            return map;
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not read index " + indexFile.getPath() + ": " + ioe.getMessage());
+        } finally {
+            if (null != f) {
+                try {
+                    f.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Reads one entry record, as written by write() and by ZipManifestWriter.
+     */
+    static ZipEntryRO readEntry(ByteBuffer buf, File archive, String zipFileName, byte[] tempBuf) {
+        int fileNameLen = buf.getShort() & 0xffff;
+        buf.get(tempBuf, 0, fileNameLen);
+
+        ZipEntryRO ze = new ZipEntryRO(zipFileName, archive, new String(tempBuf, 0, fileNameLen, UTF_8));
+        ze.mMethod = buf.getShort() & 0xffff;
+        ze.mWhenModified = buf.getInt() & 0xffffffffL;
+        ze.mCRC32 = buf.getInt() & 0xffffffffL;
+        ze.mCompressedLength = buf.getLong();
+        ze.mUncompressedLength = buf.getLong();
+        ze.mLocalHdrOffset = buf.getLong();
+        ze.mOffset = buf.getLong();
+        return ze;
+    }
+
+    /**
+     * Writes an index for the given archive entries. Failures are logged and
+     * otherwise ignored; the archive is simply parsed again next time.
+     *
+     * @param archive the archive the entries were read from
+     * @param entries the entries of that archive, with offsets resolved
+     */
+    static void write(File archive, ArrayList<ZipEntryRO> entries) {
+        File indexFile = getIndexFile(archive);
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+
+        // in the order CompactEntryTable searches, so it can take the names as they are
+        final byte[][] entryNames = new byte[entries.size()][];
+        Integer[] order = new Integer[entryNames.length];
+        for (int i = 0; i < entryNames.length; i++) {
+            entryNames[i] = entries.get(i).mFileName.getBytes(UTF_8);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return CompactEntryTable.compareNames(entryNames[lhs], 0, entryNames[lhs].length,
+                        entryNames[rhs], 0, entryNames[rhs].length);
+            }
+        });
+
+        // drop duplicate names, the last one wins as in a HashMap
+        ArrayList<ZipEntryRO> sorted = new ArrayList<ZipEntryRO>(order.length);
+        ArrayList<byte[]> names = new ArrayList<byte[]>(order.length);
+        for (int i = 0; i < order.length; i++) {
+            if (i + 1 < order.length && Arrays.equals(entryNames[order[i]], entryNames[order[i + 1]])) {
+                continue;
+            }
+            sorted.add(entries.get(order[i]));
+            names.add(entryNames[order[i]]);
+        }
+
+        int size = kIndexHeaderLen;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (sorted.get(i).mOffset < 0) {
+                // local header could not be read, don't persist a bad offset
+                Log.w(LOG_TAG, "not indexing " + archive.getPath() + ", unresolved entry " + sorted.get(i).mFileName);
+                return;
+            }
+            size += 2 + names.get(i).length + 2 + 4 + 4 + 8 + 8 + 8 + 8;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(kIndexSignature);
+        buf.putInt(kIndexVersion);
+        buf.putLong(archive.length());
+        buf.putLong(archive.lastModified());
+        buf.putInt(sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            ZipEntryRO ze = sorted.get(i);
+            buf.putShort((short) names.get(i).length);
+            buf.put(names.get(i));
+            buf.putShort((short) ze.mMethod);
+            buf.putInt((int) ze.mWhenModified);
+            buf.putInt((int) ze.mCRC32);
+            buf.putLong(ze.mCompressedLength);
+            buf.putLong(ze.mUncompressedLength);
+            buf.putLong(ze.mLocalHdrOffset);
+            buf.putLong(ze.mOffset);
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(buf.array());
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(indexFile)) {
+                Log.w(LOG_TAG, "could not move index into place at " + indexFile.getPath());
+                tempFile.delete();
+            } else if (LOGV) {
+                Log.v(LOG_TAG, "+++ wrote " + sorted.size() + " entries to " + indexFile.getPath());
+            }
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not write index " + indexFile.getPath() + ": " + ioe.getMessage());
+            tempFile.delete();
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.Log;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The manifest embedded at the start of an archive by
+ * {@link ZipManifestWriter}: the archive's entry table, its template file
+ * name table and the contents of its content metadata entries, all read
+ * with one sequential read from the start of the file.
+ */
+class ZipManifest {
+
+    static final String LOG_TAG = "zipmanifest";
+    static final boolean LOGV = false;
+
+    // handed over to the resource file once, see takeEntries()
+    private ArrayList<ZipEntryRO> mEntries;
+
+    // file name -> full entry name
+    final HashMap<String, String> mTemplates;
+
+    // entry name -> decompressed contents
+    final HashMap<String, byte[]> mMetadata;
+
+    private ZipManifest(ArrayList<ZipEntryRO> entries, HashMap<String, String> templates,
+            HashMap<String, byte[]> metadata) {
+        mEntries = entries;
+        mTemplates = templates;
+        mMetadata = metadata;
+    }
+
+    /**
+     * @return the entry table, which the manifest no longer keeps a reference
+     *         to, so a compact resource file isn't held to the full table
+     */
+    ArrayList<ZipEntryRO> takeEntries() {
+        ArrayList<ZipEntryRO> entries = mEntries;
+        mEntries = null;
+        return entries;
+    }
+
+    /**
+     * @return the embedded contents of the named entry, or null if the
+     *         manifest doesn't carry them
+     */
+    byte[] getData(String entryName) {
+        return mMetadata.get(entryName);
+    }
+
+    /**
+     * Reads the manifest at the start of an archive.
+     *
+     * @param archive the archive
+     * @param zipFileName the name to record in the returned entries
+     * @return the manifest, or null if the archive doesn't start with one
+     */
+    static ZipManifest read(File archive, String zipFileName) {
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(archive, "r");
+            if (f.length() < ZipResourceFile.kLFHLen) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(ZipResourceFile.kLFHLen).order(ByteOrder.LITTLE_ENDIAN);
+            f.readFully(header.array());
+            if (header.getInt(0) != ZipResourceFile.kLFHSignature
+                    || (header.getShort(8) & 0xffff) != ZipResourceFile.kCompressStored) {
+                return null;
+            }
+            int nameLen = header.getShort(ZipResourceFile.kLFHNameLen) & 0xffff;
+            int extraLen = header.getShort(ZipResourceFile.kLFHExtraLen) & 0xffff;
+            long dataLen = header.getInt(18) & 0xffffffffL;
+            if (nameLen != ZipManifestWriter.ENTRY_NAME.length()
+                    || ZipResourceFile.kLFHLen + nameLen + extraLen + dataLen > f.length()) {
+                return null;
+            }
+
+            // name, extra and manifest in one read
+            byte[] rest = new byte[(int) (nameLen + extraLen + dataLen)];
+            f.readFully(rest);
+            String name = new String(rest, 0, nameLen, ZipManifestWriter.UTF_8);
+            if (!ZipManifestWriter.ENTRY_NAME.equals(name)) {
+                return null;
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap(rest, nameLen + extraLen, (int) dataLen).slice();
+            if (buf.getInt() != ZipManifestWriter.kManifestSignature
+                    || buf.getInt() != ZipManifestWriter.kManifestVersion) {
+                Log.w(LOG_TAG, "unrecognized manifest in " + archive.getPath());
+                return null;
+            }
+
+            int numEntries = buf.getInt();
+            ArrayList<ZipEntryRO> entries = new ArrayList<ZipEntryRO>(numEntries);
+            byte[] tempBuf = new byte[0xffff];
+            for (int i = 0; i < numEntries; i++) {
+                entries.add(ZipIndexFile.readEntry(buf, archive, zipFileName, tempBuf));
+            }
+
+            int numTemplates = buf.getInt();
+            HashMap<String, String> templates = new HashMap<String, String>(numTemplates * 2);
+            for (int i = 0; i < numTemplates; i++) {
+                int templateLen = buf.getShort() & 0xffff;
+                buf.get(tempBuf, 0, templateLen);
+                templates.put(new String(tempBuf, 0, templateLen, ZipManifestWriter.UTF_8),
+                        entries.get(buf.getInt()).mFileName);
+            }
+
+            int numMetadata = buf.getInt();
+            HashMap<String, byte[]> metadata = new HashMap<String, byte[]>(numMetadata * 2);
+            for (int i = 0; i < numMetadata; i++) {
+                String entryName = entries.get(buf.getInt()).mFileName;
+                byte[] data = new byte[buf.getInt()];
+                buf.get(data);
+                metadata.put(entryName, data);
+            }
+
+            if (LOGV) {
+                Log.v(LOG_TAG, "+++ read manifest of " + numEntries + " entries from " + archive.getPath());
+            }
+            return new ZipManifest(entries, templates, metadata);
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not read manifest of " + archive.getPath() + ": " + ioe.getMessage());
+        } catch (RuntimeException re) {
+            // BufferUnderflowException or IndexOutOfBoundsException from a corrupt manifest
+            Log.w(LOG_TAG, "corrupt manifest in " + archive.getPath() + ": " + re.getMessage());
+        } finally {
+            if (null != f) {
+                try {
+                    f.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,379 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Build-time tool that embeds a manifest as the first entry of an expansion
+ * archive, so {@link ZipResourceFile} can open the archive with one small
+ * sequential read from its start instead of walking the central directory.
+ *
+ * <p>The manifest is a stored entry named {@link #ENTRY_NAME} holding,
+ * big-endian:
+ * <ul>
+ * <li>the entry table, in the record format of {@link ZipIndexFile}, with
+ * offsets as they are in the rewritten archive;</li>
+ * <li>a template table mapping each file name (last path segment) to the
+ * index of the first entry, in name order, with that name;</li>
+ * <li>the decompressed contents of every content metadata entry.</li>
+ * </ul>
+ * The rest of the archive is copied byte for byte behind it, so entry data
+ * keeps its alignment and the archive stays readable by any zip tool.
+ *
+ * <p>Uses only the standard library, so it can be run on a build machine:
+ * <pre>
+ * java com.android.vending.expansion.zipfile.ZipManifestWriter in.obb out.obb
+ * </pre>
+ */
+public class ZipManifestWriter {
+
+    // 18 characters, so the manifest data starts 4-byte aligned at offset 48
+    public static final String ENTRY_NAME = "META-INF/LIGER.IDX";
+
+    // entries whose contents are embedded, see IndexManager.loadContentMetadata
+    static final String kMetadataPrefix = "content_metadata";
+    static final String kMetadataSuffix = ".json";
+
+    static final int kManifestSignature = 0x5a4d414e; // "ZMAN"
+    static final int kManifestVersion = 1;
+    static final int kAlignment = 4;
+
+    static final int kEOCDSignature = 0x06054b50;
+    static final int kEOCDLen = 22;
+    static final int kMaxEOCDSearch = 65535 + kEOCDLen;
+    static final int kLFHSignature = 0x04034b50;
+    static final int kLFHLen = 30;
+    static final int kCDESignature = 0x02014b50;
+    static final int kCDELen = 46;
+    static final int kCDELocalOffset = 42;
+    static final int kCopyBufferLen = 64 * 1024;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /*
+     * What the manifest records about each entry, read from the central
+     * directory and the entry's local header.
+     */
+    static private final class Entry {
+        String mName;
+        byte[] mNameBytes;
+        int mMethod;
+        long mWhenModified;
+        long mCRC32;
+        long mCompressedLength;
+        long mUncompressedLength;
+        long mLocalHdrOffset;
+        long mOffset;
+    }
+
+    static String getBasename(String name) {
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    static boolean isMetadata(String name) {
+        String basename = getBasename(name);
+        return basename.startsWith(kMetadataPrefix) && basename.endsWith(kMetadataSuffix);
+    }
+
+    /**
+     * Writes a copy of an archive with a manifest as its first entry. An
+     * existing manifest in the input is replaced.
+     *
+     * @param in the archive to read
+     * @param out the archive to write; must not be in
+     * @return the number of entries recorded in the manifest
+     * @throws IOException if either archive can't be read or written
+     */
+    static public int write(File in, File out) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(in, "r");
+        try {
+            long fileLength = f.length();
+            int searchLen = (int) Math.min(kMaxEOCDSearch, fileLength);
+            ByteBuffer tail = ByteBuffer.allocate(searchLen).order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(fileLength - searchLen);
+            f.readFully(tail.array());
+            int eocd = searchLen - kEOCDLen;
+            while (eocd >= 0 && tail.getInt(eocd) != kEOCDSignature) {
+                eocd--;
+            }
+            if (eocd < 0) {
+                throw new IOException(in.getPath() + " is not a zip archive");
+            }
+            int numEntries = tail.getShort(eocd + 10) & 0xffff;
+            long dirSize = tail.getInt(eocd + 12) & 0xffffffffL;
+            long dirOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+            if (numEntries == 0xffff || dirSize == 0xffffffffL || dirOffset == 0xffffffffL) {
+                // the manifest itself records 64-bit offsets, but the rewrite below doesn't
+                throw new IOException(in.getPath() + " is a zip64 archive, which isn't supported yet");
+            }
+
+            ByteBuffer dir = ByteBuffer.allocate((int) dirSize).order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(dirOffset);
+            f.readFully(dir.array());
+
+            // parse the directory, keeping each record so it can be copied with a new offset
+            ArrayList<Entry> entries = new ArrayList<Entry>(numEntries);
+            ArrayList<byte[]> records = new ArrayList<byte[]>(numEntries);
+            long skippedLength = 0; // an existing manifest at the start of the input
+            ByteBuffer lfh = ByteBuffer.allocate(kLFHLen).order(ByteOrder.LITTLE_ENDIAN);
+            int pos = 0;
+            for (int i = 0; i < numEntries; i++) {
+                if (dir.getInt(pos) != kCDESignature) {
+                    throw new IOException("missed a central directory signature at " + pos);
+                }
+                int nameLen = dir.getShort(pos + 28) & 0xffff;
+                int recordLen = kCDELen + nameLen + (dir.getShort(pos + 30) & 0xffff)
+                        + (dir.getShort(pos + 32) & 0xffff);
+
+                Entry entry = new Entry();
+                entry.mNameBytes = new byte[nameLen];
+                System.arraycopy(dir.array(), pos + kCDELen, entry.mNameBytes, 0, nameLen);
+                entry.mName = new String(entry.mNameBytes, UTF_8);
+                entry.mMethod = dir.getShort(pos + 10) & 0xffff;
+                entry.mWhenModified = dir.getInt(pos + 12) & 0xffffffffL;
+                entry.mCRC32 = dir.getInt(pos + 16) & 0xffffffffL;
+                entry.mCompressedLength = dir.getInt(pos + 20) & 0xffffffffL;
+                entry.mUncompressedLength = dir.getInt(pos + 24) & 0xffffffffL;
+                entry.mLocalHdrOffset = dir.getInt(pos + kCDELocalOffset) & 0xffffffffL;
+
+                f.seek(entry.mLocalHdrOffset);
+                f.readFully(lfh.array());
+                if (lfh.getInt(0) != kLFHSignature) {
+                    throw new IOException("bad local header for " + entry.mName);
+                }
+                entry.mOffset = entry.mLocalHdrOffset + kLFHLen
+                        + (lfh.getShort(26) & 0xffff) + (lfh.getShort(28) & 0xffff);
+
+                if (ENTRY_NAME.equals(entry.mName)) {
+                    if (entry.mLocalHdrOffset != 0) {
+                        throw new IOException("existing manifest isn't the first entry");
+                    }
+                    skippedLength = entry.mOffset + entry.mCompressedLength;
+                } else {
+                    entries.add(entry);
+                    byte[] record = new byte[recordLen];
+                    System.arraycopy(dir.array(), pos, record, 0, recordLen);
+                    records.add(record);
+                }
+                pos += recordLen;
+            }
+
+            byte[] manifest = buildManifest(in, entries, skippedLength);
+            long shift = kLFHLen + ENTRY_NAME.length() + manifest.length - skippedLength;
+
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(out), kCopyBufferLen);
+            try {
+                byte[] name = ENTRY_NAME.getBytes(UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(manifest);
+
+                ByteBuffer header = ByteBuffer.allocate(kLFHLen).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(kLFHSignature);
+                header.putShort((short) 10); // version needed
+                header.putShort((short) 0x0800); // flags, utf-8 names
+                header.putShort((short) ZipEntry.STORED);
+                header.putInt(0); // dos time and date
+                header.putInt((int) crc.getValue());
+                header.putInt(manifest.length);
+                header.putInt(manifest.length);
+                header.putShort((short) name.length);
+                header.putShort((short) 0);
+                os.write(header.array());
+                os.write(name);
+                os.write(manifest);
+
+                // everything else up to the central directory, unchanged
+                byte[] buf = new byte[kCopyBufferLen];
+                f.seek(skippedLength);
+                long remaining = dirOffset - skippedLength;
+                while (remaining > 0) {
+                    int read = f.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("unexpected end of " + in.getPath());
+                    }
+                    os.write(buf, 0, read);
+                    remaining -= read;
+                }
+
+                ByteBuffer cde = ByteBuffer.allocate(kCDELen).order(ByteOrder.LITTLE_ENDIAN);
+                cde.putInt(kCDESignature);
+                cde.putShort((short) 10); // version made by
+                cde.putShort((short) 10); // version needed
+                cde.putShort((short) 0x0800);
+                cde.putShort((short) ZipEntry.STORED);
+                cde.putInt(0);
+                cde.putInt((int) crc.getValue());
+                cde.putInt(manifest.length);
+                cde.putInt(manifest.length);
+                cde.putShort((short) name.length);
+                cde.putShort((short) 0); // extra
+                cde.putShort((short) 0); // comment
+                cde.putShort((short) 0); // disk
+                cde.putShort((short) 0); // internal attributes
+                cde.putInt(0); // external attributes
+                cde.putInt(0); // local header offset
+                os.write(cde.array());
+                os.write(name);
+                long newDirSize = kCDELen + name.length;
+
+                for (byte[] record : records) {
+                    ByteBuffer r = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+                    r.putInt(kCDELocalOffset, (int) ((r.getInt(kCDELocalOffset) & 0xffffffffL) + shift));
+                    os.write(record);
+                    newDirSize += record.length;
+                }
+
+                ByteBuffer end = ByteBuffer.allocate(kEOCDLen).order(ByteOrder.LITTLE_ENDIAN);
+                end.putInt(kEOCDSignature);
+                end.putShort((short) 0);
+                end.putShort((short) 0);
+                end.putShort((short) (entries.size() + 1));
+                end.putShort((short) (entries.size() + 1));
+                end.putInt((int) newDirSize);
+                end.putInt((int) (dirOffset + shift));
+                end.putShort((short) 0);
+                os.write(end.array());
+            } finally {
+                os.close();
+            }
+            return entries.size();
+        } finally {
+            f.close();
+        }
+    }
+
+    /*
+     * The manifest contents for entries that will follow it. Its length only
+     * depends on the names and embedded metadata, so the offsets recorded in
+     * it can be shifted by its own final size.
+     */
+    static byte[] buildManifest(File in, ArrayList<Entry> entries, long skippedLength) throws IOException {
+        ArrayList<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mName.compareTo(rhs.mName);
+            }
+        });
+
+        // first entry in name order for each file name
+        ArrayList<String> templateNames = new ArrayList<String>();
+        ArrayList<Integer> templateEntries = new ArrayList<Integer>();
+        HashMap<String, Integer> seen = new HashMap<String, Integer>();
+        ArrayList<Integer> metadataEntries = new ArrayList<Integer>();
+        ArrayList<byte[]> metadata = new ArrayList<byte[]>();
+        ZipFile zip = new ZipFile(in);
+        try {
+            for (int i = 0; i < sorted.size(); i++) {
+                String name = sorted.get(i).mName;
+                if (name.endsWith("/")) {
+                    continue;
+                }
+                String basename = getBasename(name);
+                if (!seen.containsKey(basename)) {
+                    seen.put(basename, i);
+                    templateNames.add(basename);
+                    templateEntries.add(i);
+                }
+                if (isMetadata(name)) {
+                    metadataEntries.add(i);
+                    metadata.add(readFully(zip, zip.getEntry(name)));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+
+        int size = 4 + 4 + 4;
+        for (Entry entry : sorted) {
+            size += 2 + entry.mNameBytes.length + 2 + 4 + 4 + 8 + 8 + 8 + 8;
+        }
+        byte[][] templateNameBytes = new byte[templateNames.size()][];
+        size += 4;
+        for (int i = 0; i < templateNameBytes.length; i++) {
+            templateNameBytes[i] = templateNames.get(i).getBytes(UTF_8);
+            size += 2 + templateNameBytes[i].length + 4;
+        }
+        size += 4;
+        for (byte[] data : metadata) {
+            size += 4 + 4 + data.length;
+        }
+        // keep everything after the manifest on its original alignment
+        size = (size + kAlignment - 1) / kAlignment * kAlignment;
+
+        long shift = kLFHLen + ENTRY_NAME.length() + size - skippedLength;
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(kManifestSignature);
+        buf.putInt(kManifestVersion);
+        buf.putInt(sorted.size());
+        for (Entry entry : sorted) {
+            buf.putShort((short) entry.mNameBytes.length);
+            buf.put(entry.mNameBytes);
+            buf.putShort((short) entry.mMethod);
+            buf.putInt((int) entry.mWhenModified);
+            buf.putInt((int) entry.mCRC32);
+            buf.putLong(entry.mCompressedLength);
+            buf.putLong(entry.mUncompressedLength);
+            buf.putLong(entry.mLocalHdrOffset + shift);
+            buf.putLong(entry.mOffset + shift);
+        }
+        buf.putInt(templateNameBytes.length);
+        for (int i = 0; i < templateNameBytes.length; i++) {
+            buf.putShort((short) templateNameBytes[i].length);
+            buf.put(templateNameBytes[i]);
+            buf.putInt(templateEntries.get(i));
+        }
+        buf.putInt(metadata.size());
+        for (int i = 0; i < metadata.size(); i++) {
+            buf.putInt(metadataEntries.get(i));
+            buf.putInt(metadata.get(i).length);
+            buf.put(metadata.get(i));
+        }
+        return buf.array();
+    }
+
+    static byte[] readFully(ZipFile zip, ZipEntry entry) throws IOException {
+        byte[] data = new byte[(int) entry.getSize()];
+        InputStream in = zip.getInputStream(entry);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    throw new IOException("entry " + entry.getName() + " shorter than its directory length");
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: ZipManifestWriter <in.obb> <out.obb>");
+            System.exit(1);
+        }
+        File in = new File(args[0]);
+        File out = new File(args[1]);
+        int count = write(in, out);
+        System.out.println("wrote manifest of " + count + " entries to " + out.getPath());
+    }
+}
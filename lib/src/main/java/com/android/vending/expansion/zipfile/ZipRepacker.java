@@ -0,0 +1,260 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Build-time tool that rewrites an expansion archive for fast reads by
+ * {@link ZipResourceFile}.
+ *
+ * <p>Given an access profile recorded with {@link ZipAccessProfile}, entries
+ * are written in three runs:
+ * <ol>
+ * <li>entries in the profile, in the order they were read at startup, so
+ * that opening a library reads one contiguous region of the file;</li>
+ * <li>the remaining small entries (JSON, markup, images), by name;</li>
+ * <li>audio and video, by name, at the end of the file.</li>
+ * </ol>
+ * JSON and media that are already compressed are stored rather than
+ * deflated, and the data of every stored entry is aligned to
+ * {@link #kAlignment} bytes by padding its local header's extra field, so
+ * it can be read straight out of a mapping or handed to a media player as a
+ * file descriptor range.
+ *
+ * <p>Uses only the standard library, so it can be run on a build machine:
+ * <pre>
+ * java com.android.vending.expansion.zipfile.ZipRepacker in.obb profile.txt out.obb
+ * </pre>
+ */
+public class ZipRepacker {
+
+    static final int kAlignment = 4;
+
+    // extra field id used by zipalign for alignment padding
+    static final int kAlignmentExtraId = 0xd935;
+    static final int kAlignmentExtraMinLen = 6; // id, size, alignment
+
+    static final int kLFHLen = 30;
+    static final int kCopyBufferLen = 64 * 1024;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // extensions whose data is already compressed and is played from a descriptor
+    static final String[] kMediaExtensions = {
+            ".mp4", ".m4a", ".m4v", ".3gp", ".mp3", ".aac", ".ogg", ".webm", ".wav", ".mkv"
+    };
+
+    // extensions whose data is already compressed, deflating gains nothing
+    static final String[] kStoredExtensions = {
+            ".jpg", ".jpeg", ".png", ".gif", ".webp"
+    };
+
+    // extensions stored although they would deflate well, so they are read
+    // straight from the archive mapping without inflating a copy first
+    static final String[] kMappedExtensions = {
+            ".json"
+    };
+
+    /*
+     * Counts bytes written, so the position of each local header is known.
+     */
+    static private final class CountingOutputStream extends FilterOutputStream {
+        long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+    }
+
+    static boolean hasExtension(String name, String[] extensions) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : extensions) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isMedia(ZipEntry entry) {
+        return hasExtension(entry.getName(), kMediaExtensions);
+    }
+
+    static boolean shouldStore(ZipEntry entry) {
+        return entry.isDirectory()
+                || entry.getMethod() == ZipEntry.STORED
+                || isMedia(entry)
+                || hasExtension(entry.getName(), kStoredExtensions)
+                || hasExtension(entry.getName(), kMappedExtensions);
+    }
+
+    /**
+     * Orders the entries of an archive as described in the class comment.
+     *
+     * @param entries the archive's entries, in any order
+     * @param profile entry names in first-read order; names that aren't in
+     *            the archive are skipped
+     * @return the entries in their new order
+     */
+    static public ArrayList<ZipEntry> order(List<ZipEntry> entries, List<String> profile) {
+        HashMap<String, ZipEntry> byName = new HashMap<String, ZipEntry>();
+        for (ZipEntry entry : entries) {
+            byName.put(entry.getName(), entry);
+        }
+
+        ArrayList<ZipEntry> ordered = new ArrayList<ZipEntry>(entries.size());
+        for (String name : profile) {
+            ZipEntry entry = byName.remove(name);
+            if (null != entry) {
+                ordered.add(entry);
+            }
+        }
+
+        ArrayList<ZipEntry> warm = new ArrayList<ZipEntry>();
+        ArrayList<ZipEntry> cold = new ArrayList<ZipEntry>();
+        for (ZipEntry entry : byName.values()) {
+            if (isMedia(entry)) {
+                cold.add(entry);
+            } else {
+                warm.add(entry);
+            }
+        }
+        Comparator<ZipEntry> byNameOrder = new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry lhs, ZipEntry rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        };
+        Collections.sort(warm, byNameOrder);
+        Collections.sort(cold, byNameOrder);
+        ordered.addAll(warm);
+        ordered.addAll(cold);
+        return ordered;
+    }
+
+    /*
+     * Extra field that pads a local header so the entry data after it
+     * starts on an aligned offset, or null if no padding is needed.
+     */
+    static byte[] getAlignmentExtra(long headerOffset, int nameLen) {
+        long dataOffset = headerOffset + kLFHLen + nameLen;
+        int padding = (int) ((kAlignment - (dataOffset % kAlignment)) % kAlignment);
+        if (padding == 0) {
+            return null;
+        }
+        while (padding < kAlignmentExtraMinLen) {
+            padding += kAlignment;
+        }
+        byte[] extra = new byte[padding];
+        extra[0] = (byte) kAlignmentExtraId;
+        extra[1] = (byte) (kAlignmentExtraId >> 8);
+        extra[2] = (byte) (padding - 4);
+        extra[3] = (byte) ((padding - 4) >> 8);
+        extra[4] = (byte) kAlignment;
+        extra[5] = (byte) (kAlignment >> 8);
+        return extra;
+    }
+
+    /**
+     * Rewrites an archive in profile order with aligned stored entries.
+     *
+     * @param in the archive to read
+     * @param profile entry names in first-read order
+     * @param out the archive to write; must not be in
+     * @return the number of entries written
+     * @throws IOException if either archive can't be read or written
+     */
+    static public int repack(File in, List<String> profile, File out) throws IOException {
+        ZipFile source = new ZipFile(in);
+        try {
+            ArrayList<ZipEntry> entries = new ArrayList<ZipEntry>();
+            Enumeration<? extends ZipEntry> e = source.entries();
+            while (e.hasMoreElements()) {
+                entries.add(e.nextElement());
+            }
+            ArrayList<ZipEntry> ordered = order(entries, profile);
+
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(out), kCopyBufferLen));
+            ZipOutputStream zip = new ZipOutputStream(counter, UTF_8);
+            try {
+                byte[] buf = new byte[kCopyBufferLen];
+                for (ZipEntry entry : ordered) {
+                    ZipEntry copy = new ZipEntry(entry.getName());
+                    copy.setTime(entry.getTime());
+                    if (shouldStore(entry)) {
+                        copy.setMethod(ZipEntry.STORED);
+                        copy.setSize(entry.getSize());
+                        copy.setCompressedSize(entry.getSize());
+                        copy.setCrc(entry.getCrc());
+                        // closeEntry has written everything up to this header
+                        byte[] extra = getAlignmentExtra(counter.mCount,
+                                entry.getName().getBytes(UTF_8).length);
+                        if (null != extra) {
+                            copy.setExtra(extra);
+                        }
+                    } else {
+                        copy.setMethod(ZipEntry.DEFLATED);
+                    }
+                    zip.putNextEntry(copy);
+                    InputStream data = source.getInputStream(entry);
+                    try {
+                        int read;
+                        while ((read = data.read(buf)) > 0) {
+                            zip.write(buf, 0, read);
+                        }
+                    } finally {
+                        data.close();
+                    }
+                    zip.closeEntry();
+                }
+            } finally {
+                zip.close();
+            }
+            return ordered.size();
+        } finally {
+            source.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: ZipRepacker <in.obb> <profile.txt> <out.obb>");
+            System.exit(1);
+        }
+        File in = new File(args[0]);
+        File out = new File(args[2]);
+        List<String> profile = ZipAccessProfile.read(new File(args[1]));
+        int count = repack(in, profile, out);
+        System.out.println("wrote " + count + " entries (" + profile.size() + " profiled) to "
+                + out.getPath() + ", " + in.length() + " -> " + out.length() + " bytes");
+    }
+}
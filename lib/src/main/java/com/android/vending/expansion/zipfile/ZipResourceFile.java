@@ -20,20 +20,28 @@ import android.content.res.AssetFileDescriptor;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Vector;
-import java.util.zip.ZipEntry;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipFile;
 
 public class ZipResourceFile {
@@ -69,6 +77,19 @@ public class ZipResourceFile {
     static final int kMaxCommentLen = 65535; // longest possible in ushort
     static final int kMaxEOCDSearch = (kMaxCommentLen + kEOCDLen);
 
+    static final int kZip64LocatorSignature = 0x07064b50;
+    static final int kZip64LocatorLen = 20;
+    static final int kZip64LocatorEOCDOffset = 8; // offset to zip64 eocd record
+
+    static final int kZip64EOCDSignature = 0x06064b50;
+    static final int kZip64EOCDLen = 56; // excluding extensible data
+    static final int kZip64EOCDNumEntries = 32; // offset to total #of entries
+    static final int kZip64EOCDSize = 40; // size of the central directory
+    static final int kZip64EOCDFileOffset = 48; // offset to central directory
+
+    static final long kZip64Marker = 0xffffffffL; // 32-bit field moved to zip64 extra
+    static final int kZip64ExtraId = 0x0001;
+
     static final int kLFHSignature = 0x04034b50;
     static final int kLFHLen = 30; // excluding variable-len fields
     static final int kLFHNameLen = 26; // offset to filename length
@@ -89,6 +110,12 @@ public class ZipResourceFile {
     static final int kCompressStored = 0; // no compression
     static final int kCompressDeflated = 8; // standard deflate
 
+    static final int kPrefetchMaxGap = 32 * 1024; // largest unwanted gap read through
+    static final int kPrefetchMaxRun = 1024 * 1024; // largest single read
+
+    static final long kMapWindowSize = 8 * 1024 * 1024; // stored entries are mapped in windows
+    static final int kMaxMapWindows = 4; // mapped windows kept per archive
+
     /*
      * The values we return for ZipEntryRO use 0 as an invalid value, so we want
      * to adjust the hash table index by a fixed amount. Using a large value
@@ -137,6 +164,31 @@ public class ZipResourceFile {
             }
         }
 
+        /**
+         * Resolves the data offset from the local file header using a
+         * positional read, leaving the channel's position untouched.
+         */
+        public void setOffsetFromChannel(FileChannel channel, ByteBuffer buf) throws IOException {
+            long localHdrOffset = mLocalHdrOffset;
+            try {
+                buf.clear();
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, localHdrOffset + buf.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                if (buf.getInt(0) != kLFHSignature) {
+                    Log.w(LOG_TAG, "didn't find signature at start of lfh");
+                    throw new IOException();
+                }
+                int nameLen = buf.getShort(kLFHNameLen) & 0xFFFF;
+                int extraLen = buf.getShort(kLFHExtraLen) & 0xFFFF;
+                mOffset = localHdrOffset + kLFHLen + nameLen + extraLen;
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+
         /**
          * Calculates the offset of the start of the Zip file entry within the
          * Zip file.
@@ -180,35 +232,273 @@ public class ZipResourceFile {
 
     }
 
+    /*
+     * Read-only channel and mappings of an archive, shared by every resource
+     * file the archive is merged into. Both are only ever read by position,
+     * so they can serve any number of threads.
+     *
+     * The archive is reference counted: the resource file that opened it
+     * holds a reference until it is closed, and so does every stream reading
+     * through the channel. The channel is opened on first use and closed with
+     * the last reference, so an archive dropped from the registry doesn't keep
+     * its descriptor. Stored entries are mapped in bounded windows rather than
+     * whole, so a large archive doesn't tie up its size in address space.
+     */
+    static final class SharedArchive {
+        SharedArchive(File file) {
+            mFile = file;
+        }
+
+        final File mFile;
+        private int mRefs = 1;
+        private FileChannel mChannel;
+        private boolean mMapFailed;
+
+        // window index -> mapping of that window, least recently used first
+        private final LinkedHashMap<Long, MappedByteBuffer> mWindows =
+                new LinkedHashMap<Long, MappedByteBuffer>(kMaxMapWindows, 0.75f, true);
+
+        synchronized void acquire() {
+            mRefs++;
+        }
+
+        synchronized void release() {
+            if (--mRefs > 0) {
+                return;
+            }
+            // mappings already handed out stay valid after the channel is closed
+            mWindows.clear();
+            if (null != mChannel) {
+                try {
+                    mChannel.close();
+                } catch (IOException ioe) {
+                    Log.w(LOG_TAG, "could not close " + mFile.getPath() + ": " + ioe.getMessage());
+                }
+                mChannel = null;
+            }
+        }
+
+        /*
+         * The caller must hold a reference for as long as it uses the channel.
+         */
+        synchronized FileChannel getChannel() throws IOException {
+            if (null == mChannel) {
+                mChannel = new RandomAccessFile(mFile, "r").getChannel();
+            }
+            return mChannel;
+        }
+
+        /*
+         * Opens a stream over a region of the archive, which holds a
+         * reference until it is closed.
+         */
+        InputStream openRegion(long start, long length, int padding) throws IOException {
+            acquire();
+            try {
+                return new ChannelRegionInputStream(getChannel(), start, length, padding, this);
+            } catch (IOException ioe) {
+                release();
+                throw ioe;
+            }
+        }
+
+        /*
+         * Maps a region of the archive. Regions within one window share the
+         * window's mapping, kept for the next kMaxMapWindows reads; others
+         * are mapped on their own.
+         *
+         * @return a buffer over exactly the region, or null if it can't be mapped
+         */
+        synchronized ByteBuffer map(long offset, long length) {
+            if (mMapFailed || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            acquire();
+            try {
+                FileChannel channel = getChannel();
+                long size = channel.size();
+                if (offset + length > size) {
+                    Log.w(LOG_TAG, "region at " + offset + " extends past end of " + mFile.getPath());
+                    return null;
+                }
+
+                long window = offset / kMapWindowSize;
+                if (window != (offset + Math.max(length, 1) - 1) / kMapWindowSize) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+                MappedByteBuffer map = mWindows.get(window);
+                if (null == map) {
+                    long windowStart = window * kMapWindowSize;
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                            Math.min(kMapWindowSize, size - windowStart));
+                    mWindows.put(window, map);
+                    if (mWindows.size() > kMaxMapWindows) {
+                        Iterator<Long> eldest = mWindows.keySet().iterator();
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+                ByteBuffer slice = map.duplicate();
+                int start = (int) (offset - window * kMapWindowSize);
+                slice.position(start);
+                slice.limit(start + (int) length);
+                return slice.slice();
+            } catch (IOException ioe) {
+                // e.g. out of address space, fall back to file descriptors
+                Log.w(LOG_TAG, "could not map " + mFile.getPath() + ": " + ioe.getMessage());
+                mMapFailed = true;
+                return null;
+            } finally {
+                release();
+            }
+        }
+    }
+
     private HashMap<String, ZipEntryRO> mHashMap = new HashMap<String, ZipEntryRO>();
 
-    /* for reading compressed files */
+    /* used instead of mHashMap when the entries are kept compact */
+    private final boolean mCompact;
+    private CompactEntryTable mCompactTable;
+
+    /* for reading files without a descriptor or seek per read */
+    private HashMap<File, SharedArchive> mSharedArchives = new HashMap<File, SharedArchive>();
+
+    /* the archives this resource file opened itself, released by close() */
+    private final ArrayList<SharedArchive> mOpenedArchives = new ArrayList<SharedArchive>();
+    private boolean mClosed;
+    private volatile boolean mMapStoredEntries = true;
+
+    /* manifests embedded in the archives, in patch order */
+    private LinkedHashMap<File, ZipManifest> mManifests = new LinkedHashMap<File, ZipManifest>();
+
+    /**
+     * @deprecated compressed files are now inflated from positional reads of
+     *             the archive; this map is no longer populated.
+     */
+    @Deprecated
     public HashMap<File, ZipFile> mZipFiles = new HashMap<File, ZipFile>();
 
     public ZipResourceFile(String zipFileName) throws IOException {
+        this(zipFileName, false);
+    }
+
+    /**
+     * @param zipFileName
+     * @param compact true to hold the entries in a {@link CompactEntryTable}
+     *            rather than one ZipEntryRO per entry. Lookups then create a
+     *            short-lived ZipEntryRO per call, in exchange for a much
+     *            smaller resident entry table.
+     * @throws IOException
+     */
+    public ZipResourceFile(String zipFileName, boolean compact) throws IOException {
+        mCompact = compact;
         addPatchFile(zipFileName);
     }
 
+    /*
+     * Creates an empty resource file, to be filled from already opened
+     * archives with addPatchFile(ZipResourceFile).
+     */
+    ZipResourceFile(boolean compact) {
+        mCompact = compact;
+        if (compact) {
+            mCompactTable = CompactEntryTable.EMPTY;
+        }
+    }
+
+    /**
+     * @return true if the entries are held in a compact table
+     */
+    public boolean isCompact() {
+        return mCompact;
+    }
+
+    /**
+     * @param assetPath
+     * @return the entry for the path, or null if not found
+     */
+    public ZipEntryRO getEntry(String assetPath) {
+        if (mCompact) {
+            return mCompactTable.getEntry(assetPath);
+        }
+        return mHashMap.get(assetPath);
+    }
+
+    /* sorted views of mHashMap, built on first use */
+    private ZipDirectoryIndex mDirectoryIndex;
+
+    private synchronized ZipDirectoryIndex getDirectoryIndex() {
+        if (null == mDirectoryIndex) {
+            Collection<ZipEntryRO> values = mHashMap.values();
+            mDirectoryIndex = new ZipDirectoryIndex(values.toArray(new ZipEntryRO[values.size()]));
+        }
+        return mDirectoryIndex;
+    }
+
     ZipEntryRO[] getEntriesAt(String path) {
-        Vector<ZipEntryRO> zev = new Vector<ZipEntryRO>();
-        Collection<ZipEntryRO> values = mHashMap.values();
         if (null == path)
             path = "";
-        int length = path.length();
-        for (ZipEntryRO ze : values) {
-            if (ze.mFileName.startsWith(path)) {
-                if (-1 == ze.mFileName.indexOf('/', length)) {
-                    zev.add(ze);
-                }
-            }
+        if (mCompact) {
+            return mCompactTable.getEntriesAt(path);
+        }
+        return getDirectoryIndex().getEntriesAt(path);
+    }
+
+    /**
+     * @return every entry whose path starts with prefix, sorted by path
+     */
+    public ZipEntryRO[] getEntriesWithPrefix(String prefix) {
+        if (mCompact) {
+            return mCompactTable.getEntriesWithPrefix(prefix);
         }
-        ZipEntryRO[] entries = new ZipEntryRO[zev.size()];
-        return zev.toArray(entries);
+        return getDirectoryIndex().getEntriesWithPrefix(prefix);
+    }
+
+    /**
+     * findEntryByBasename looks an entry up by its file name alone,
+     * ignoring the directories it is in. If several entries share the
+     * name, the one with the lowest full path wins.
+     *
+     * @param basename
+     * @return the entry, or null if no entry has that file name
+     */
+    public ZipEntryRO findEntryByBasename(String basename) {
+        if (mCompact) {
+            return mCompactTable.findEntryByBasename(basename);
+        }
+        return getDirectoryIndex().findEntryByBasename(basename);
     }
 
     public ZipEntryRO[] getAllEntries() {
-        Collection<ZipEntryRO> values = mHashMap.values();
-        return values.toArray(new ZipEntryRO[values.size()]);
+        if (mCompact) {
+            return mCompactTable.getAllEntries();
+        }
+        return getDirectoryIndex().getAllEntries();
+    }
+
+    /**
+     * getTemplateMap returns the file name to path table carried in the
+     * embedded manifests. Where several entries share a file name, the one
+     * with the lowest full path wins, across all the archives, so the table
+     * agrees with findEntryByBasename.
+     *
+     * @return the map, or null if any of the archives has no manifest
+     */
+    public HashMap<String, String> getTemplateMap() {
+        if (mManifests.size() != mSharedArchives.size()) {
+            return null;
+        }
+        HashMap<String, String> templates = new HashMap<String, String>();
+        for (ZipManifest manifest : mManifests.values()) {
+            // each manifest already holds the lowest path within its archive
+            for (Map.Entry<String, String> template : manifest.mTemplates.entrySet()) {
+                String path = templates.get(template.getKey());
+                if (null == path || template.getValue().compareTo(path) < 0) {
+                    templates.put(template.getKey(), template.getValue());
+                }
+            }
+        }
+        return templates;
     }
 
     /**
@@ -223,13 +513,46 @@ public class ZipResourceFile {
      *         present or is stored compressed
      */
     public AssetFileDescriptor getAssetFileDescriptor(String assetPath) {
-        ZipEntryRO entry = mHashMap.get(assetPath);
+        ZipEntryRO entry = getEntry(assetPath);
         if (null != entry) {
+            ZipAccessProfile.record(assetPath);
             return entry.getAssetFileDescriptor();
         }
         return null;
     }
 
+    /**
+     * Sets whether stored (uncompressed) entries are read from shared
+     * read-only mappings of the archive. Enabled by default; when disabled,
+     * or when an archive can't be mapped, reads go through an
+     * AssetFileDescriptor instead.
+     *
+     * @param mapStoredEntries true to serve stored entries from the mapping
+     */
+    public void setMapStoredEntries(boolean mapStoredEntries) {
+        mMapStoredEntries = mapStoredEntries;
+    }
+
+    /**
+     * getByteBuffer returns a read-only view of a stored entry's data within
+     * a mapping of its archive. No data is copied; the view stays valid for
+     * as long as it is referenced, even once the archive has been closed.
+     *
+     * @param assetPath
+     * @return a buffer positioned at the start of the entry's data, or null
+     *         if the file isn't present, is stored compressed, or the archive
+     *         can't be mapped
+     */
+    public ByteBuffer getByteBuffer(String assetPath) {
+        ZipEntryRO entry = getEntry(assetPath);
+        if (null == entry || !entry.isUncompressed() || entry.getOffset() < 0) {
+            return null;
+        }
+        ZipAccessProfile.record(assetPath);
+        SharedArchive archive = mSharedArchives.get(entry.getZipFile());
+        return (null == archive) ? null : archive.map(entry.getOffset(), entry.mUncompressedLength);
+    }
+
     /**
      * getInputStream returns an AssetFileDescriptor.AutoCloseInputStream
      * associated with the asset that is contained in the Zip file, or a
@@ -240,32 +563,221 @@ public class ZipResourceFile {
      * @throws IOException
      */
     public InputStream getInputStream(String assetPath) throws IOException {
-        ZipEntryRO entry = mHashMap.get(assetPath);
+        ZipEntryRO entry = getEntry(assetPath);
         if (null != entry) {
+            ZipAccessProfile.record(assetPath);
+            ZipManifest manifest = mManifests.get(entry.getZipFile());
+            byte[] embedded = (null == manifest) ? null : manifest.getData(entry.mFileName);
+            if (null != embedded) {
+                return new ByteBufferInputStream(ByteBuffer.wrap(embedded).asReadOnlyBuffer());
+            }
             if (entry.isUncompressed()) {
+                if (mMapStoredEntries) {
+                    ByteBuffer buffer = getByteBuffer(assetPath);
+                    if (null != buffer) {
+                        return new ByteBufferInputStream(buffer);
+                    }
+                }
                 return entry.getAssetFileDescriptor().createInputStream();
             } else {
-                ZipFile zf = mZipFiles.get(entry.getZipFile());
+                byte[] inflated = InflatedEntryCache.get(entry);
+                if (null != inflated) {
+                    return new ByteBufferInputStream(ByteBuffer.wrap(inflated).asReadOnlyBuffer());
+                }
+
                 /** read compressed files **/
-                if (null == zf) {
-                    zf = new ZipFile(entry.getZipFile(), ZipFile.OPEN_READ);
-                    mZipFiles.put(entry.getZipFile(), zf);
+                if (entry.mMethod != kCompressDeflated || entry.getOffset() < 0) {
+                    Log.w(LOG_TAG, "can't read " + assetPath + " (method " + entry.mMethod + ")");
+                    return null;
+                }
+                SharedArchive archive = mSharedArchives.get(entry.getZipFile());
+                if (null == archive) {
+                    return null;
                 }
-                ZipEntry zi = zf.getEntry(assetPath);
-                if (null != zi) {
-                    return zf.getInputStream(zi);
+                InputStream compressed = archive.openRegion(entry.getOffset(), entry.mCompressedLength, 1);
+                InputStream in = InflaterPool.createInputStream(compressed, entry.mUncompressedLength);
+                if (InflatedEntryCache.isCacheable(entry)) {
+                    inflated = readFully(in, (int) entry.mUncompressedLength);
+                    InflatedEntryCache.put(entry, inflated);
+                    return new ByteBufferInputStream(ByteBuffer.wrap(inflated).asReadOnlyBuffer());
                 }
+                return in;
             }
         }
         return null;
     }
 
-    ByteBuffer mLEByteBuffer = ByteBuffer.allocate(4);
+    static private byte[] readFully(InputStream in, int length) throws IOException {
+        try {
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int count = in.read(data, read, length - read);
+                if (count < 0) {
+                    throw new EOFException("entry shorter than its directory length");
+                }
+                read += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * prefetch reads the named entries ahead of use, sorted by their offset
+     * in each archive and coalesced into as few sequential reads as possible.
+     * Deflated entries are inflated into the {@link InflatedEntryCache}, so a
+     * later getInputStream doesn't touch the archive. Stored entries are
+     * skipped: they are served straight from the archive, and reading them
+     * here would only copy them into a buffer that is thrown away. Names that
+     * aren't present, entries embedded in a manifest and entries already
+     * cached are skipped too, so calling this again with the same names is
+     * cheap.
+     *
+     * <p>This reads from the archive, so don't call it from the UI thread.
+     *
+     * @param assetPaths the entries to read, in any order
+     * @return the number of entries read
+     */
+    public int prefetch(Collection<String> assetPaths) {
+        ArrayList<ZipEntryRO> entries = new ArrayList<ZipEntryRO>();
+        HashSet<String> keys = new HashSet<String>();
+        for (String assetPath : assetPaths) {
+            ZipEntryRO entry = getEntry(assetPath);
+            if (null == entry || entry.getOffset() < 0 || entry.mCompressedLength > kPrefetchMaxRun) {
+                continue;
+            }
+            ZipManifest manifest = mManifests.get(entry.getZipFile());
+            if (null != manifest && null != manifest.getData(entry.mFileName)) {
+                continue;
+            }
+            if (entry.mMethod != kCompressDeflated
+                    || !InflatedEntryCache.isCacheable(entry)
+                    || null != InflatedEntryCache.get(entry)) {
+                continue;
+            }
+            if (keys.add(InflatedEntryCache.getKey(entry))) {
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        Collections.sort(entries, new Comparator<ZipEntryRO>() {
+            @Override
+            public int compare(ZipEntryRO lhs, ZipEntryRO rhs) {
+                int byFile = lhs.getZipFileName().compareTo(rhs.getZipFileName());
+                if (byFile != 0) {
+                    return byFile;
+                }
+                return (lhs.getOffset() < rhs.getOffset()) ? -1
+                        : ((lhs.getOffset() == rhs.getOffset()) ? 0 : 1);
+            }
+        });
+
+        int count = 0;
+        int runStart = 0;
+        for (int i = 1; i <= entries.size(); i++) {
+            ZipEntryRO first = entries.get(runStart);
+            if (i < entries.size()) {
+                ZipEntryRO next = entries.get(i);
+                long runEnd = getDataEnd(entries.get(i - 1));
+                if (next.getZipFile().equals(first.getZipFile())
+                        && next.getOffset() - runEnd <= kPrefetchMaxGap
+                        && getDataEnd(next) - first.getOffset() <= kPrefetchMaxRun) {
+                    continue;
+                }
+            }
+            count += prefetchRun(entries.subList(runStart, i));
+            runStart = i;
+        }
+        if (LOGV) {
+            Log.v(LOG_TAG, "+++ prefetched " + count + " of " + assetPaths.size() + " entries");
+        }
+        return count;
+    }
+
+    static private long getDataEnd(ZipEntryRO entry) {
+        return entry.getOffset() + (entry.isUncompressed() ? entry.mUncompressedLength : entry.mCompressedLength);
+    }
+
+    /*
+     * Reads one run of entries of the same archive, sorted by offset, with a
+     * single positional read spanning all of them.
+     */
+    private int prefetchRun(List<ZipEntryRO> run) {
+        ZipEntryRO first = run.get(0);
+        long start = first.getOffset();
+        long end = start;
+        for (ZipEntryRO entry : run) {
+            end = Math.max(end, getDataEnd(entry));
+        }
+        SharedArchive archive = mSharedArchives.get(first.getZipFile());
+        if (null == archive) {
+            return 0;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) (end - start));
+        archive.acquire();
+        try {
+            FileChannel channel = archive.getChannel();
+            while (data.hasRemaining()) {
+                if (channel.read(data, start + data.position()) < 0) {
+                    throw new EOFException("archive truncated at " + (start + data.position()));
+                }
+            }
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not prefetch from " + first.getZipFileName() + ": " + ioe.getMessage());
+            return 0;
+        } finally {
+            archive.release();
+        }
+
+        int count = 0;
+        for (ZipEntryRO entry : run) {
+            ByteBuffer compressed = data.duplicate();
+            compressed.position((int) (entry.getOffset() - start));
+            compressed.limit((int) (getDataEnd(entry) - start));
+            // raw Inflaters need a dummy byte after the deflate stream
+            InputStream padded = new SequenceInputStream(new ByteBufferInputStream(compressed.slice()),
+                    new ByteArrayInputStream(new byte[1]));
+            try {
+                InflatedEntryCache.put(entry, readFully(
+                        InflaterPool.createInputStream(padded, entry.mUncompressedLength),
+                        (int) entry.mUncompressedLength));
+                count++;
+            } catch (IOException ioe) {
+                Log.w(LOG_TAG, "could not prefetch " + entry.mFileName + ": " + ioe.getMessage());
+            }
+        }
+        return count;
+    }
 
     static private int read4LE(RandomAccessFile f) throws EOFException, IOException {
         return swapEndian(f.readInt());
     }
     
+    /*
+     * Overlays the entries of an already opened resource file, without
+     * reading its central directory again. Entries in the patch replace
+     * entries of the same name, as with addPatchFile(String).
+     */
+    void addPatchFile(ZipResourceFile patch) {
+        if (mCompact != patch.mCompact) {
+            throw new IllegalArgumentException("can't merge compact and hashed resource files");
+        }
+        mDirectoryIndex = null;
+        if (mCompact) {
+            mCompactTable = CompactEntryTable.merge(mCompactTable, patch.mCompactTable);
+        } else {
+            mHashMap.putAll(patch.mHashMap);
+        }
+        mSharedArchives.putAll(patch.mSharedArchives);
+        mManifests.putAll(patch.mManifests);
+    }
+
     /*
      * Opens the specified file read-only. We memory-map the entire thing and
      * close the file before returning.
@@ -273,7 +785,78 @@ public class ZipResourceFile {
     void addPatchFile(String zipFileName) throws IOException
     {
         File file = new File(zipFileName);
+
+        /*
+         * Use the manifest embedded at the start of the archive, or else the
+         * index left by a previous scan of this archive if it is still
+         * current.
+         */
+        ArrayList<ZipEntryRO> entries = null;
+        CompactEntryTable table = null;
+        ZipManifest manifest = ZipManifest.read(file, zipFileName);
+        if (null != manifest) {
+            entries = manifest.takeEntries();
+            mManifests.put(file, manifest);
+        } else if (mCompact) {
+            table = ZipIndexFile.readTable(file, zipFileName);
+        } else {
+            entries = ZipIndexFile.read(file, zipFileName);
+        }
+        if (null == entries && null == table) {
+            entries = readCentralDirectory(zipFileName, file);
+            ZipIndexFile.write(file, entries);
+        }
+
+        mDirectoryIndex = null;
+        if (mCompact) {
+            if (null == table) {
+                table = CompactEntryTable.build(file, zipFileName, entries);
+            }
+            mCompactTable = (null == mCompactTable) ? table : CompactEntryTable.merge(mCompactTable, table);
+        } else {
+            for (ZipEntryRO ze : entries) {
+                mHashMap.put(ze.mFileName, ze);
+            }
+        }
+        SharedArchive archive = new SharedArchive(file);
+        mSharedArchives.put(file, archive);
+        mOpenedArchives.add(archive);
+    }
+
+    /**
+     * close releases the archives this resource file opened. Their channels
+     * are closed once the streams still reading from them are closed too;
+     * resource files they were merged into can still be read, reopening the
+     * archive for as long as each read takes.
+     */
+    public void close() {
+        synchronized (mOpenedArchives) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        for (SharedArchive archive : mOpenedArchives) {
+            archive.release();
+        }
+    }
+
+    /*
+     * Walks the central directory of the specified file, resolving the data
+     * offset of every entry from its local header.
+     */
+    private static ArrayList<ZipEntryRO> readCentralDirectory(String zipFileName, File file) throws IOException
+    {
         RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            return readCentralDirectory(zipFileName, file, f);
+        } finally {
+            f.close();
+        }
+    }
+
+    private static ArrayList<ZipEntryRO> readCentralDirectory(String zipFileName, File file, RandomAccessFile f) throws IOException
+    {
         long fileLength = f.length();
 
         if (fileLength < kEOCDLen) {
@@ -336,6 +919,7 @@ public class ZipResourceFile {
 
         if (eocdIdx < 0) {
             Log.d(LOG_TAG, "Zip: EOCD not found, " + zipFileName + " is not zip");
+            throw new IOException();
         }
 
         /*
@@ -343,10 +927,40 @@ public class ZipResourceFile {
          * archive. After that, we can release our EOCD hunt buffer.
          */
 
-        int numEntries = bbuf.getShort(eocdIdx + kEOCDNumEntries);
+        long numEntries = bbuf.getShort(eocdIdx + kEOCDNumEntries) & 0xffffL;
         long dirSize = bbuf.getInt(eocdIdx + kEOCDSize) & 0xffffffffL;
         long dirOffset = bbuf.getInt(eocdIdx + kEOCDFileOffset) & 0xffffffffL;
 
+        /*
+         * A ZIP64 archive has a locator just before the EOCD, pointing at a
+         * ZIP64 EOCD record that holds the full count, size and offset. The
+         * fields above are only placeholders then.
+         */
+        long locatorOffset = searchStart + eocdIdx - kZip64LocatorLen;
+        if (locatorOffset >= 0) {
+            ByteBuffer locator = ByteBuffer.allocate(kZip64LocatorLen);
+            locator.order(ByteOrder.LITTLE_ENDIAN);
+            f.seek(locatorOffset);
+            f.readFully(locator.array());
+            if (locator.getInt(0) == kZip64LocatorSignature) {
+                long zip64EocdOffset = locator.getLong(kZip64LocatorEOCDOffset);
+                ByteBuffer zip64Eocd = ByteBuffer.allocate(kZip64EOCDLen);
+                zip64Eocd.order(ByteOrder.LITTLE_ENDIAN);
+                f.seek(zip64EocdOffset);
+                f.readFully(zip64Eocd.array());
+                if (zip64Eocd.getInt(0) != kZip64EOCDSignature) {
+                    Log.w(LOG_TAG, "bad zip64 end of central directory at " + zip64EocdOffset);
+                    throw new IOException();
+                }
+                numEntries = zip64Eocd.getLong(kZip64EOCDNumEntries);
+                dirSize = zip64Eocd.getLong(kZip64EOCDSize);
+                dirOffset = zip64Eocd.getLong(kZip64EOCDFileOffset);
+                if (LOGV) {
+                    Log.v(LOG_TAG, "+++ zip64 archive, eocd at " + zip64EocdOffset);
+                }
+            }
+        }
+
         // Verify that they look reasonable.
         if (dirOffset + dirSize > fileLength) {
             Log.w(LOG_TAG, "bad offsets (dir " + dirOffset + ", size " + dirSize + ", eocd "
@@ -357,6 +971,10 @@ public class ZipResourceFile {
             Log.w(LOG_TAG, "empty archive?");
             throw new IOException();
         }
+        if (numEntries > Integer.MAX_VALUE || dirSize > Integer.MAX_VALUE) {
+            Log.w(LOG_TAG, "central directory too large (" + numEntries + " entries, " + dirSize + " bytes)");
+            throw new IOException();
+        }
 
         if (LOGV) {
             Log.v(LOG_TAG, "+++ numEntries=" + numEntries + " dirSize=" + dirSize + " dirOffset="
@@ -381,6 +999,8 @@ public class ZipResourceFile {
         ByteBuffer buf = ByteBuffer.allocate(kLFHLen);
         buf.order(ByteOrder.LITTLE_ENDIAN);
 
+        ArrayList<ZipEntryRO> entries = new ArrayList<ZipEntryRO>((int) numEntries);
+
         for (int i = 0; i < numEntries; i++) {
             if (directoryMap.getInt(currentOffset) != kCDESignature) {
                 Log.w(LOG_TAG, "Missed a central dir sig (at " + currentOffset + ")");
@@ -398,8 +1018,8 @@ public class ZipResourceFile {
             directoryMap.get(tempBuf, 0, fileNameLen);
             directoryMap.position(0);
 
-            /* UTF-8 on Android */
-            String str = new String(tempBuf, 0, fileNameLen);
+            /* UTF-8, the default on Android, and what the index sorts by */
+            String str = new String(tempBuf, 0, fileNameLen, ZipIndexFile.UTF_8);
             if (LOGV) {
                 Log.v(LOG_TAG, "Filename: " + str);
             }
@@ -412,12 +1032,16 @@ public class ZipResourceFile {
             ze.mUncompressedLength = directoryMap.getLong(currentOffset + kCDEUncompLen) & 0xffffffffL;
             ze.mLocalHdrOffset = directoryMap.getInt(currentOffset + kCDELocalOffset) & 0xffffffffL;
 
+            // sizes and offsets that don't fit in 32 bits are in the zip64 extra field
+            if (ze.mUncompressedLength == kZip64Marker || ze.mCompressedLength == kZip64Marker
+                    || ze.mLocalHdrOffset == kZip64Marker) {
+                readZip64Extra(ze, directoryMap, currentOffset + kCDELen + fileNameLen, extraLen);
+            }
+
             // set the offsets
-            buf.clear();
-            ze.setOffsetFromFile(f, buf);
+            ze.setOffsetFromChannel(f.getChannel(), buf);
 
-            // put file into hash
-            mHashMap.put(str, ze);
+            entries.add(ze);
 
             // go to next directory entry
             currentOffset += kCDELen + fileNameLen + extraLen + commentLen;
@@ -425,5 +1049,41 @@ public class ZipResourceFile {
         if (LOGV) {
             Log.v(LOG_TAG, "+++ zip good scan " + numEntries + " entries");
         }
+        return entries;
+    }
+
+    /*
+     * Replaces the 32-bit placeholders of an entry with the values from its
+     * zip64 extended information extra field. The field only holds the values
+     * whose central directory fields are placeholders, in a fixed order.
+     */
+    private static void readZip64Extra(ZipEntryRO ze, ByteBuffer directory, int extraStart, int extraLen)
+            throws IOException
+    {
+        int pos = extraStart;
+        int end = extraStart + extraLen;
+        while (pos + 4 <= end) {
+            int headerId = directory.getShort(pos) & 0xffff;
+            int dataSize = directory.getShort(pos + 2) & 0xffff;
+            if (headerId == kZip64ExtraId) {
+                int field = pos + 4;
+                int fieldEnd = field + dataSize;
+                if (ze.mUncompressedLength == kZip64Marker && field + 8 <= fieldEnd) {
+                    ze.mUncompressedLength = directory.getLong(field);
+                    field += 8;
+                }
+                if (ze.mCompressedLength == kZip64Marker && field + 8 <= fieldEnd) {
+                    ze.mCompressedLength = directory.getLong(field);
+                    field += 8;
+                }
+                if (ze.mLocalHdrOffset == kZip64Marker && field + 8 <= fieldEnd) {
+                    ze.mLocalHdrOffset = directory.getLong(field);
+                }
+                return;
+            }
+            pos += 4 + dataSize;
+        }
+        Log.w(LOG_TAG, "no zip64 extra field for " + ze.mFileName);
+        throw new IOException();
     }
 }
@@ -0,0 +1,134 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Process-wide registry of opened {@link ZipResourceFile} instances.
+ *
+ * <p>Each archive is parsed once and kept keyed by its path, length and
+ * modification time, so a file that is replaced on disk (for example by a
+ * finished download) is reopened on the next lookup. Combinations of archives
+ * (main + patch + content packs) are merged from the already opened archives
+ * rather than by re-reading their central directories. Archives that are
+ * replaced or dropped are closed, once the streams still reading from them
+ * are closed.
+ */
+public class ZipResourceFileRegistry {
+
+    static final String LOG_TAG = "zipreg";
+    static final boolean LOGV = false;
+
+    static private final class Registration {
+        Registration(String key, ZipResourceFile resourceFile) {
+            mKey = key;
+            mResourceFile = resourceFile;
+        }
+
+        final String mKey;
+        final ZipResourceFile mResourceFile;
+    }
+
+    // archive path -> single opened archive
+    static private final HashMap<String, Registration> sArchives = new HashMap<String, Registration>();
+
+    // joined archive paths -> merged archive set
+    static private final HashMap<String, Registration> sMerged = new HashMap<String, Registration>();
+
+    static private boolean sCompactEntries = false;
+
+    /**
+     * Sets whether archives opened from now on keep their entries in a
+     * {@link CompactEntryTable}. Changing the setting drops every registered
+     * archive, since compact and hashed resource files can't be merged.
+     *
+     * @param compactEntries true to trade a small allocation per lookup for
+     *            a much smaller resident entry table
+     */
+    static public synchronized void setCompactEntries(boolean compactEntries) {
+        if (compactEntries != sCompactEntries) {
+            sCompactEntries = compactEntries;
+            clear();
+        }
+    }
+
+    static String getArchiveKey(File file) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    /**
+     * Returns a shared resource file for the given expansion files, in patch
+     * order. Archives that have already been opened and are unchanged on disk
+     * are not read again.
+     *
+     * @param expansionFiles absolute paths of the archives, main file first
+     * @return the merged resource file, or null if no paths were given
+     * @throws IOException if an archive could not be opened
+     */
+    static public synchronized ZipResourceFile getResourceZipFile(String[] expansionFiles) throws IOException {
+        if (expansionFiles.length == 0) {
+            return null;
+        }
+
+        ZipResourceFile[] archives = new ZipResourceFile[expansionFiles.length];
+        StringBuilder mergedPath = new StringBuilder();
+        StringBuilder mergedKey = new StringBuilder();
+
+        for (int i = 0; i < expansionFiles.length; i++) {
+            String expansionFilePath = expansionFiles[i];
+            String key = getArchiveKey(new File(expansionFilePath));
+
+            Registration registration = sArchives.get(expansionFilePath);
+            if ((null == registration) || !key.equals(registration.mKey)) {
+                if (LOGV) {
+                    Log.v(LOG_TAG, "+++ opening " + key);
+                }
+                Registration replaced = registration;
+                registration = new Registration(key, new ZipResourceFile(expansionFilePath, sCompactEntries));
+                sArchives.put(expansionFilePath, registration);
+                if (null != replaced) {
+                    replaced.mResourceFile.close();
+                }
+            }
+            archives[i] = registration.mResourceFile;
+
+            mergedPath.append(expansionFilePath).append('\n');
+            mergedKey.append(key).append('\n');
+        }
+
+        if (archives.length == 1) {
+            return archives[0];
+        }
+
+        String path = mergedPath.toString();
+        String key = mergedKey.toString();
+
+        Registration registration = sMerged.get(path);
+        if ((null == registration) || !key.equals(registration.mKey)) {
+            ZipResourceFile merged = new ZipResourceFile(sCompactEntries);
+            for (ZipResourceFile archive : archives) {
+                merged.addPatchFile(archive);
+            }
+            registration = new Registration(key, merged);
+            sMerged.put(path, registration);
+        }
+        return registration.mResourceFile;
+    }
+
+    /**
+     * Drops every registered archive. Streams that are already open remain
+     * valid, and each archive is closed once they are; subsequent lookups
+     * reopen the archives from disk.
+     */
+    static public synchronized void clear() {
+        for (Registration registration : sArchives.values()) {
+            // merged archive sets only share these, they don't hold their own
+            registration.mResourceFile.close();
+        }
+        sArchives.clear();
+        sMerged.clear();
+    }
+}
@@ -0,0 +1,461 @@
+package com.android.vending.expansion.zipfile;
+
+import android.util.Log;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * Checks expansion archives for corruption before they are used.
+ *
+ * <p>Every entry is decompressed and compared against the CRC32 recorded in
+ * the central directory, and optionally the whole file is compared against
+ * a published hex digest. The work is spread over a small, bounded pool of
+ * threads. A successful check is recorded in a stamp file next to the
+ * archive, holding the archive length, modification time and the digest
+ * that was checked, so an unchanged archive is never scanned twice.
+ *
+ * <p>A check tells an archive that is corrupt apart from one that couldn't
+ * be read this time (storage unmounted, out of descriptors, interrupted), so
+ * callers only delete archives that are known to be bad.
+ */
+public class ZipVerifier {
+
+    static final String LOG_TAG = "zipverify";
+    static final boolean LOGV = false;
+
+    public static final String SUFFIX = ".verified";
+
+    /** {@link #verify} results */
+    public static final int OK = 0;
+    public static final int CORRUPT = 1;
+    public static final int UNKNOWN = 2;
+
+    static final int kStampSignature = 0x5a564552; // "ZVER"
+    static final int kStampVersion = 1;
+    static final int kStampHeaderLen = 24; // signature, version, length, mtime
+
+    static final int kMaxThreads = 4;
+    static final int kReadBufferLen = 64 * 1024;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * @return the file the verification stamp of archive is kept in
+     */
+    static public File getStampFile(File archive) {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    /**
+     * Moves the stamp of an archive that was itself moved. The stamp stays
+     * valid as long as the move kept the archive's modification time.
+     */
+    static public void moveStamp(File from, File to) {
+        File stampFile = getStampFile(from);
+        if (stampFile.isFile() && !stampFile.renameTo(getStampFile(to))) {
+            Log.w(LOG_TAG, "could not move " + stampFile.getPath());
+            stampFile.delete();
+        }
+    }
+
+    /**
+     * @param archive the archive to look up
+     * @param checksum the hex digest the archive must also have matched, or
+     *            null if a CRC check alone is enough
+     * @return true if the archive, in its current state, has already passed
+     *         {@link #verify}. This only reads the stamp file, so it is cheap
+     *         enough to call from the UI thread.
+     */
+    static public boolean isVerified(File archive, String checksum) {
+        File stampFile = getStampFile(archive);
+        if (!stampFile.isFile() || stampFile.length() < kStampHeaderLen) {
+            return false;
+        }
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(stampFile, "r");
+            byte[] stamp = new byte[(int) f.length()];
+            f.readFully(stamp);
+            ByteBuffer buf = ByteBuffer.wrap(stamp);
+            if (buf.getInt() != kStampSignature
+                    || buf.getInt() != kStampVersion
+                    || buf.getLong() != archive.length()
+                    || buf.getLong() != archive.lastModified()) {
+                return false;
+            }
+            // a checksum verify() can't check was not checked when the stamp was written either
+            String checkedChecksum = getCheckedChecksum(checksum);
+            if (null == checkedChecksum) {
+                return true;
+            }
+            String verifiedChecksum = new String(stamp, buf.position(), buf.remaining(), UTF_8);
+            return verifiedChecksum.equalsIgnoreCase(checkedChecksum);
+        } catch (IOException ioe) {
+            return false;
+        } finally {
+            if (null != f) {
+                try {
+                    f.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks every entry of the archive against its CRC32 and, if a checksum
+     * is given, the whole file against it. Returns immediately if the archive
+     * is unchanged since it last passed.
+     *
+     * <p>This reads the whole archive on first use, so don't call it from the
+     * UI thread.
+     *
+     * @param archive the archive to check
+     * @param checksum hex SHA-256, SHA-1 or MD5 digest of the whole file, or
+     *            null to only check the entries
+     * @return {@link #OK} if the archive is intact, {@link #CORRUPT} if an
+     *         entry or the digest doesn't match, or {@link #UNKNOWN} if the
+     *         archive couldn't be read to the end
+     */
+    static public int verify(File archive, String checksum) {
+        if (isVerified(archive, checksum)) {
+            if (LOGV) {
+                Log.v(LOG_TAG, "+++ already verified " + archive.getPath());
+            }
+            return OK;
+        }
+        getStampFile(archive).delete();
+
+        long length = archive.length();
+        long lastModified = archive.lastModified();
+
+        final ZipEntryRO[] entries;
+        try {
+            ZipResourceFile resourceFile = new ZipResourceFile(archive.getPath());
+            entries = resourceFile.getAllEntries();
+            resourceFile.close();
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not read directory of " + archive.getPath() + ": " + ioe.getMessage());
+            // a directory that can't be parsed from a readable file is corrupt
+            return isReadable(archive) ? CORRUPT : UNKNOWN;
+        }
+        // largest first, so one big entry doesn't end up last on one thread
+        Arrays.sort(entries, new Comparator<ZipEntryRO>() {
+            @Override
+            public int compare(ZipEntryRO lhs, ZipEntryRO rhs) {
+                return (lhs.mCompressedLength < rhs.mCompressedLength) ? 1
+                        : ((lhs.mCompressedLength == rhs.mCompressedLength) ? 0 : -1);
+            }
+        });
+
+        final MessageDigest digest = getDigest(checksum);
+        int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), kMaxThreads));
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        RandomAccessFile f = null;
+        boolean corrupt = false;
+        boolean unknown = false;
+        try {
+            f = new RandomAccessFile(archive, "r");
+            final FileChannel channel = f.getChannel();
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicBoolean stop = new AtomicBoolean();
+
+            // each check returns false if it found corruption, and stops the others
+            ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            if (null != digest) {
+                final File digestFile = archive;
+                final String expected = checksum;
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        try {
+                            if (!checkDigest(digestFile, digest, expected, stop)) {
+                                stop.set(true);
+                                return false;
+                            }
+                            return true;
+                        } catch (IOException ioe) {
+                            stop.set(true);
+                            throw ioe;
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < numThreads; i++) {
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        byte[] buf = new byte[kReadBufferLen];
+                        int index;
+                        try {
+                            while (!stop.get() && (index = next.getAndIncrement()) < entries.length) {
+                                if (!checkEntry(channel, entries[index], buf)) {
+                                    stop.set(true);
+                                    return false;
+                                }
+                            }
+                            return true;
+                        } catch (IOException ioe) {
+                            stop.set(true);
+                            throw ioe;
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                try {
+                    if (!result.get()) {
+                        corrupt = true;
+                    }
+                } catch (ExecutionException ee) {
+                    Log.w(LOG_TAG, "could not verify " + archive.getPath() + ": " + ee.getCause());
+                    unknown = true;
+                }
+            }
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not verify " + archive.getPath() + ": " + ioe.getMessage());
+            unknown = true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            unknown = true;
+        } finally {
+            pool.shutdownNow();
+            if (null != f) {
+                try {
+                    f.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+
+        // a mismatch that was found stands even if another check couldn't finish
+        if (corrupt) {
+            return CORRUPT;
+        } else if (unknown) {
+            return UNKNOWN;
+        }
+        if (archive.length() != length || archive.lastModified() != lastModified) {
+            Log.w(LOG_TAG, archive.getPath() + " changed while it was verified");
+            return UNKNOWN;
+        }
+        writeStamp(archive, length, lastModified, (null == digest) ? null : checksum);
+        return OK;
+    }
+
+    /*
+     * Whether the whole archive can be read, to tell a malformed archive
+     * from one that can't be read at the moment.
+     */
+    static boolean isReadable(File archive) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(archive);
+            byte[] buf = new byte[kReadBufferLen];
+            while (in.read(buf) > 0) {
+                // just reading
+            }
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    /*
+     * The checksum verify() checks for the given one, or null if it only
+     * checks the entries because there is no checksum or it isn't recognized.
+     */
+    static String getCheckedChecksum(String checksum) {
+        String algorithm = getAlgorithm(checksum);
+        if (null == algorithm) {
+            return null;
+        }
+        try {
+            MessageDigest.getInstance(algorithm);
+            return checksum;
+        } catch (NoSuchAlgorithmException nsae) {
+            return null;
+        }
+    }
+
+    /*
+     * The digest algorithm matching the length of a hex checksum, or null if
+     * there is no checksum or it isn't recognized.
+     */
+    static String getAlgorithm(String checksum) {
+        if (null == checksum) {
+            return null;
+        }
+        switch (checksum.length()) {
+            case 64:
+                return "SHA-256";
+            case 40:
+                return "SHA-1";
+            case 32:
+                return "MD5";
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * The digest matching the length of a hex checksum, or null if there is
+     * no checksum or it isn't recognized.
+     */
+    static MessageDigest getDigest(String checksum) {
+        if (null == checksum || checksum.length() == 0) {
+            return null;
+        }
+        String algorithm = getAlgorithm(checksum);
+        if (null == algorithm) {
+            Log.w(LOG_TAG, "unrecognized checksum " + checksum + ", only checking entries");
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException nsae) {
+            Log.w(LOG_TAG, algorithm + " unavailable, only checking entries");
+            return null;
+        }
+    }
+
+    /*
+     * Returns false if the digest doesn't match, true if it does or the check
+     * was stopped before the end.
+     */
+    static boolean checkDigest(File archive, MessageDigest digest, String expected, AtomicBoolean stop) throws IOException {
+        FileInputStream in = new FileInputStream(archive);
+        try {
+            byte[] buf = new byte[kReadBufferLen];
+            int read;
+            while (!stop.get() && (read = in.read(buf)) > 0) {
+                digest.update(buf, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        if (stop.get()) {
+            return true;
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        if (!expected.equalsIgnoreCase(hex.toString())) {
+            Log.w(LOG_TAG, archive.getPath() + " has digest " + hex + ", expected " + expected);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Decompresses one entry by positional reads on the shared channel and
+     * compares its CRC32 and length against the central directory. Returns
+     * false if the entry is corrupt, and throws if it couldn't be read.
+     */
+    static boolean checkEntry(FileChannel channel, ZipEntryRO entry, byte[] buf) throws IOException {
+        if (entry.getOffset() < 0) {
+            Log.w(LOG_TAG, "unreadable local header for " + entry.mFileName);
+            return false;
+        }
+        InputStream in;
+        if (entry.mMethod == ZipResourceFile.kCompressStored) {
+            in = new ChannelRegionInputStream(channel, entry.getOffset(), entry.mUncompressedLength, 0);
+        } else if (entry.mMethod == ZipResourceFile.kCompressDeflated) {
+            in = InflaterPool.createInputStream(
+                    new ChannelRegionInputStream(channel, entry.getOffset(), entry.mCompressedLength, 1),
+                    entry.mUncompressedLength);
+        } else {
+            Log.w(LOG_TAG, "unsupported method " + entry.mMethod + " for " + entry.mFileName);
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try {
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                crc.update(buf, 0, read);
+                length += read;
+            }
+        } catch (ZipException | EOFException e) {
+            // a corrupt deflate stream or an entry running past the end of the archive
+            Log.w(LOG_TAG, "could not read " + entry.mFileName + ": " + e.getMessage());
+            return false;
+        } finally {
+            in.close();
+        }
+
+        if (crc.getValue() != entry.mCRC32 || length != entry.mUncompressedLength) {
+            Log.w(LOG_TAG, entry.mFileName + " in " + entry.getZipFileName() + " is corrupt");
+            return false;
+        }
+        return true;
+    }
+
+    static void writeStamp(File archive, long length, long lastModified, String checksum) {
+        File stampFile = getStampFile(archive);
+        byte[] checksumBytes = (null == checksum) ? new byte[0] : checksum.getBytes(UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(kStampHeaderLen + checksumBytes.length);
+        buf.putInt(kStampSignature);
+        buf.putInt(kStampVersion);
+        buf.putLong(length);
+        buf.putLong(lastModified);
+        buf.put(checksumBytes);
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(stampFile);
+            out.write(buf.array());
+            if (LOGV) {
+                Log.v(LOG_TAG, "+++ verified " + archive.getPath());
+            }
+        } catch (IOException ioe) {
+            Log.w(LOG_TAG, "could not write " + stampFile.getPath() + ": " + ioe.getMessage());
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
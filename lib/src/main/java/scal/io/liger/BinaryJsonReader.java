@@ -0,0 +1,400 @@
+package scal.io.liger;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a document written by {@link StoryPathCompiler} through the {@link JsonReader} interface,
+ * so that {@link StoryPathReader} and Gson's type adapters can read it as they would read the
+ * JSON it was compiled from, without tokenizing any text.
+ *
+ * The format, with counts and indices written as unsigned varints:
+ * <pre>
+ * int      MAGIC
+ * int      VERSION
+ * int      CRC-32 of the JSON file the document was compiled from
+ * varint   string count, then each string as a varint byte length and UTF-8 bytes
+ * value    the document
+ *
+ * value := TAG_OBJECT  count, count * (name index, value)
+ *        | TAG_CARD    class name index, count, count * (name index, value)
+ *        | TAG_ARRAY   count, count * value
+ *        | TAG_STRING  string index
+ *        | TAG_NUMBER  string index of the number's literal
+ *        | TAG_TRUE | TAG_FALSE | TAG_NULL
+ * </pre>
+ * Every distinct string, name or number literal is stored and decoded once, so equal strings in
+ * the document are one String instance once read.  TAG_CARD is an object whose fully qualified
+ * card class was resolved when it was compiled, see {@link #peekCardClassName()}.
+ *
+ * Gson's own map adapter relies on JsonReader internals and can't read from this reader.  The
+ * model Gson reads HashMaps with String keys through {@link StringMapTypeAdapterFactory}
+ * instead, other maps need to be read into a JsonElement first.
+ */
+public class BinaryJsonReader extends JsonReader {
+
+    static final int MAGIC = 0x53504231; // "SPB1"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 12;
+
+    static final int TAG_OBJECT = 1;
+    static final int TAG_CARD = 2;
+    static final int TAG_ARRAY = 3;
+    static final int TAG_STRING = 4;
+    static final int TAG_NUMBER = 5;
+    static final int TAG_TRUE = 6;
+    static final int TAG_FALSE = 7;
+    static final int TAG_NULL = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Reader UNREADABLE_READER = new Reader() {
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            throw new AssertionError();
+        }
+
+        @Override
+        public void close() throws IOException {
+            throw new AssertionError();
+        }
+    };
+
+    /**
+     * @return the CRC-32 of the JSON file a compiled document was compiled from, read from the
+     * first {@link #HEADER_SIZE} bytes of the document, or -1 if those aren't the header of a
+     * document this reader can read
+     */
+    static long getSourceCrc32(byte[] header) {
+        if (header.length < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return -1;
+        }
+        return buffer.getInt() & 0xffffffffL;
+    }
+
+    private static final int NO_TAG = 0;
+
+    private final DataInputStream in;
+    private final String[] strings;
+
+    // open containers, the document itself is a one value array at depth 0
+    private int[] remaining = new int[16];
+    private boolean[] isObject = new boolean[16];
+    private boolean[] expectName = new boolean[16];
+    private int depth = 0;
+
+    // the next value's tag and, for strings, numbers and cards, its string, read by peek()
+    private int peekedTag = NO_TAG;
+    private String peekedString = null;
+
+    /**
+     * Reads the header and string table.  The stream is closed by {@link #close()}.
+     *
+     * @throws IOException if the stream can't be read or doesn't start with a compiled document
+     */
+    public BinaryJsonReader(InputStream compiledStream) throws IOException {
+        super(UNREADABLE_READER);
+        in = new DataInputStream(new BufferedInputStream(compiledStream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a compiled document");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported compiled document version " + version);
+        }
+        in.readInt(); // source CRC-32, checked by whoever picked this document over the JSON
+
+        strings = new String[readVarInt()];
+        byte[] buf = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int len = readVarInt();
+            if (len > buf.length) {
+                buf = new byte[len];
+            }
+            in.readFully(buf, 0, len);
+            strings[i] = new String(buf, 0, len, UTF_8);
+        }
+
+        remaining[0] = 1;
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private String readString() throws IOException {
+        int index = readVarInt();
+        if (index >= strings.length) {
+            throw new IOException("string index " + index + " out of range");
+        }
+        return strings[index];
+    }
+
+    @Override
+    public JsonToken peek() throws IOException {
+        if (remaining[depth] == 0) {
+            if (depth == 0) {
+                return JsonToken.END_DOCUMENT;
+            }
+            return isObject[depth] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+        }
+        if (isObject[depth] && expectName[depth]) {
+            return JsonToken.NAME;
+        }
+        if (peekedTag == NO_TAG) {
+            peekedTag = in.readUnsignedByte();
+            if (peekedTag == TAG_CARD || peekedTag == TAG_STRING || peekedTag == TAG_NUMBER) {
+                peekedString = readString();
+            }
+        }
+        switch (peekedTag) {
+            case TAG_OBJECT:
+            case TAG_CARD:
+                return JsonToken.BEGIN_OBJECT;
+            case TAG_ARRAY:
+                return JsonToken.BEGIN_ARRAY;
+            case TAG_STRING:
+                return JsonToken.STRING;
+            case TAG_NUMBER:
+                return JsonToken.NUMBER;
+            case TAG_TRUE:
+            case TAG_FALSE:
+                return JsonToken.BOOLEAN;
+            case TAG_NULL:
+                return JsonToken.NULL;
+            default:
+                throw new IOException("unknown tag " + peekedTag);
+        }
+    }
+
+    /**
+     * @return the fully qualified class of the card object that is next, or null if the next
+     * value isn't a card or its class wasn't resolved when it was compiled
+     */
+    public String peekCardClassName() throws IOException {
+        return peek() == JsonToken.BEGIN_OBJECT && peekedTag == TAG_CARD ? peekedString : null;
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        JsonToken token = peek();
+        if (token != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + token);
+        }
+    }
+
+    // marks the peeked value as read
+    private void consumeValue() {
+        peekedTag = NO_TAG;
+        peekedString = null;
+        remaining[depth]--;
+        expectName[depth] = true;
+    }
+
+    private void push(boolean object, int count) {
+        depth++;
+        if (depth == remaining.length) {
+            int newLength = depth * 2;
+            int[] newRemaining = new int[newLength];
+            boolean[] newIsObject = new boolean[newLength];
+            boolean[] newExpectName = new boolean[newLength];
+            System.arraycopy(remaining, 0, newRemaining, 0, depth);
+            System.arraycopy(isObject, 0, newIsObject, 0, depth);
+            System.arraycopy(expectName, 0, newExpectName, 0, depth);
+            remaining = newRemaining;
+            isObject = newIsObject;
+            expectName = newExpectName;
+        }
+        remaining[depth] = count;
+        isObject[depth] = object;
+        expectName[depth] = true;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+        consumeValue();
+        push(false, readVarInt());
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+        depth--;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+        consumeValue();
+        push(true, readVarInt());
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+        depth--;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY && token != JsonToken.END_DOCUMENT;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(JsonToken.NAME);
+        expectName[depth] = false;
+        return readString();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        String literal = peekLiteral("a string");
+        consumeValue();
+        return literal;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(JsonToken.BOOLEAN);
+        boolean value = peekedTag == TAG_TRUE;
+        consumeValue();
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(JsonToken.NULL);
+        consumeValue();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        // as with JsonReader, the value is only consumed if it is a number
+        double value = Double.parseDouble(peekLiteral("a double"));
+        consumeValue();
+        return value;
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        long value = parseLong(peekLiteral("a long"));
+        consumeValue();
+        return value;
+    }
+
+    @Override
+    public int nextInt() throws IOException {
+        String literal = peekLiteral("an int");
+        long value = parseLong(literal);
+        if ((int) value != value) {
+            throw new NumberFormatException("Expected an int but was " + literal);
+        }
+        consumeValue();
+        return (int) value;
+    }
+
+    // strings and numbers can be read as either, as with JsonReader
+    private String peekLiteral(String expected) throws IOException {
+        JsonToken token = peek();
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            throw new IllegalStateException("Expected " + expected + " but was " + token);
+        }
+        return peekedString;
+    }
+
+    private static long parseLong(String literal) {
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException nfe) {
+            double asDouble = Double.parseDouble(literal);
+            long value = (long) asDouble;
+            if (value != asDouble) {
+                throw new NumberFormatException("Expected a long but was " + literal);
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        JsonToken token = peek();
+        if (token == JsonToken.NAME) {
+            nextName();
+            token = peek();
+        }
+        if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY || token == JsonToken.END_DOCUMENT) {
+            throw new IllegalStateException("Expected a value but was " + token);
+        }
+        int tag = peekedTag;
+        consumeValue();
+        if (tag == TAG_OBJECT || tag == TAG_CARD || tag == TAG_ARRAY) {
+            skipContents(tag);
+        }
+    }
+
+    // skips the members or elements of an object or array whose tag and class have been read
+    private void skipContents(int tag) throws IOException {
+        for (int count = readVarInt(); count > 0; count--) {
+            if (tag != TAG_ARRAY) {
+                readVarInt(); // name
+            }
+            int valueTag = in.readUnsignedByte();
+            switch (valueTag) {
+                case TAG_CARD:
+                    readVarInt(); // class name
+                    // fall through
+                case TAG_OBJECT:
+                case TAG_ARRAY:
+                    skipContents(valueTag);
+                    break;
+                case TAG_STRING:
+                case TAG_NUMBER:
+                    readVarInt();
+                    break;
+                case TAG_TRUE:
+                case TAG_FALSE:
+                case TAG_NULL:
+                    break;
+                default:
+                    throw new IOException("unknown tag " + valueTag);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public String getPath() {
+        return "$";
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,102 @@
+package scal.io.liger;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import scal.io.liger.model.Card;
+
+/**
+ * Maps a card's "type" to its model class, so cards can be read wherever a {@link Card} is
+ * expected.  Class lookups are cached for the life of the process, and the adapter for each card
+ * class is the one the owning Gson caches, so reflection happens once per class rather than once
+ * per card.
+ *
+ * USAGE:
+ *
+ * GsonBuilder gBuild = new GsonBuilder();
+ * gBuild.registerTypeAdapterFactory(new CardTypeAdapterFactory());
+ * Gson gson = gBuild.create();
+ */
+public class CardTypeAdapterFactory implements TypeAdapterFactory {
+
+    // package of card types that aren't fully qualified, when the story path doesn't name one
+    public static final String DEFAULT_CLASS_PACKAGE = Card.class.getPackage().getName();
+
+    // fully qualified card type -> model class
+    private static final ConcurrentHashMap<String, Class<? extends Card>> cardClasses = new ConcurrentHashMap<String, Class<? extends Card>>();
+
+    /**
+     * @param classPackage the story path's class package, used if type isn't fully qualified
+     * @param type a card's "type", either a simple or a fully qualified class name
+     * @return the model class for the card type
+     * @throws ClassNotFoundException if there is no such class
+     */
+    public static Class<? extends Card> getCardClass(String classPackage, String type) throws ClassNotFoundException {
+        String fqCardType = type.contains(".") ? type : classPackage + "." + type;
+        Class<? extends Card> cardClass = cardClasses.get(fqCardType);
+        if (cardClass == null) {
+            cardClass = Class.forName(fqCardType).asSubclass(Card.class);
+            cardClasses.put(fqCardType, cardClass);
+        }
+        return cardClass;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+        if (typeToken.getRawType() != Card.class) {
+            return null;
+        }
+        return (TypeAdapter<T>) new CardTypeAdapter(gson);
+    }
+
+    private static class CardTypeAdapter extends TypeAdapter<Card> {
+
+        private final Gson gson;
+        private final TypeAdapter<JsonElement> elementAdapter;
+
+        CardTypeAdapter(Gson gson) {
+            this.gson = gson;
+            this.elementAdapter = gson.getAdapter(JsonElement.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, Card card) throws IOException {
+            if (card == null) {
+                out.nullValue();
+                return;
+            }
+            // write the fields of the concrete card, as Gson would for an unregistered base class
+            ((TypeAdapter<Card>) gson.getAdapter(card.getClass())).write(out, card);
+        }
+
+        @Override
+        public Card read(JsonReader in) throws IOException {
+            JsonElement element = elementAdapter.read(in);
+            if (element == null || element.isJsonNull()) {
+                return null;
+            }
+            JsonObject jObj = element.getAsJsonObject();
+            JsonElement type = jObj.get("type");
+            if (type == null) {
+                throw new JsonParseException("card has no type: " + jObj.get("id"));
+            }
+            try {
+                return gson.getAdapter(getCardClass(DEFAULT_CLASS_PACKAGE, type.getAsString())).fromJsonTree(jObj);
+            } catch (ClassNotFoundException e) {
+                throw new JsonParseException("MODEL CLASS NOT FOUND FOR CARD TYPE: " + type.getAsString(), e);
+            }
+        }
+    }
+}
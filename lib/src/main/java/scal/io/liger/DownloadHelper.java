@@ -7,12 +7,15 @@ import android.content.Context;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.android.vending.expansion.zipfile.ZipVerifier;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 import scal.io.liger.model.ExpansionIndexItem;
 
@@ -576,7 +579,7 @@ public class DownloadHelper {
         File expansionFile = new File(filePath + fileName);
 
         if (expansionFile.exists()) {
-            // file exists, check size/hash (TODO: hash check)
+            // file exists, check size/hash
 
             if (expansionFile.length() == 0) {
                 Timber.d("CONTENT PACK FILE " + fileName + " IS A ZERO BYTE FILE ");
@@ -588,6 +591,10 @@ public class DownloadHelper {
                 mainFileOk = false;
             }
 
+            if (mainFileOk) {
+                verifyInBackground(expansionFile, installedItem.getExpansionFileChecksum());
+            }
+
             // NOTE: unsure what to do in this state.  incomplete downloads should be .tmp or .part,
             //       so this is probably a broken file that should be deleted and redownloaded
         } else {
@@ -648,7 +655,7 @@ public class DownloadHelper {
                 expansionFile = new File(filePath + patchName);
 
                 if (expansionFile.exists()) {
-                    // file exists, check size/hash (TODO: hash check)
+                    // file exists, check size/hash
 
                     if (expansionFile.length() == 0) {
                         Timber.d("CONTENT PACK PATCH " + patchName + " IS A ZERO BYTE FILE ");
@@ -660,6 +667,10 @@ public class DownloadHelper {
                         patchFileOk = false;
                     }
 
+                    if (patchFileOk) {
+                        verifyInBackground(expansionFile, installedItem.getPatchFileChecksum());
+                    }
+
                     // NOTE: unsure what to do in this state.  incomplete downloads should be .tmp or .part,
                     //       so this is probably a broken file that should be deleted and redownloaded
 
@@ -695,6 +706,54 @@ public class DownloadHelper {
         return fileStateOk;
     }
 
+    private static final HashSet<String> verifyingPaths = new HashSet<String>();
+
+    /**
+     * Checks the crcs (and checksum, if published) of an installed file that hasn't been verified in
+     * its current state. This is called from the UI thread, so only the stamp is read here; the scan
+     * runs on its own thread. A corrupt file is deleted so that the next check downloads it again; a
+     * file that couldn't be read to the end is left alone.
+     */
+    private static void verifyInBackground(final File expansionFile, final String checksum) {
+        if (ZipVerifier.isVerified(expansionFile, checksum)) {
+            return;
+        }
+
+        synchronized (verifyingPaths) {
+            if (!verifyingPaths.add(expansionFile.getPath())) {
+                return;
+            }
+        }
+
+        Thread verifyThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Timber.d("VERIFYING " + expansionFile.getPath());
+
+                    int result = ZipVerifier.verify(expansionFile, checksum);
+                    if (result == ZipVerifier.CORRUPT) {
+                        Timber.e(expansionFile.getPath() + " IS CORRUPT, DELETING");
+                        FileUtils.deleteQuietly(expansionFile);
+                        FileUtils.deleteQuietly(ZipVerifier.getStampFile(expansionFile));
+
+                        // corrupt file removed, must clear ZipHelper cache
+                        ZipHelper.clearCache();
+                    } else if (result == ZipVerifier.UNKNOWN) {
+                        // e.g. storage unmounted or the thread interrupted, not a reason to delete it
+                        Timber.w("COULD NOT VERIFY " + expansionFile.getPath() + ", WILL CHECK AGAIN NEXT TIME");
+                    }
+                } finally {
+                    synchronized (verifyingPaths) {
+                        verifyingPaths.remove(expansionFile.getPath());
+                    }
+                }
+            }
+        });
+
+        verifyThread.start();
+    }
+
     public static ExpansionIndexItem fixStats(ExpansionIndexItem installedItem, ExpansionIndexItem availableItem) {
 
         ArrayList<String> updatedStats = new ArrayList<String>();
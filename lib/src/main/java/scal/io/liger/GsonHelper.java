@@ -0,0 +1,66 @@
+package scal.io.liger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import scal.io.liger.model.StoryPath;
+import scal.io.liger.model.StoryPathLibrary;
+import scal.io.liger.model.VideoCaptureTypeCard;
+
+/**
+ * Process-wide Gson instances.  Gson is thread-safe once built and caches the type adapters it
+ * creates, so sharing instances means the reflection behind each model class happens once per
+ * process rather than on every load and save.
+ */
+public class GsonHelper {
+
+    // index, queue and metadata files
+    private static final Gson gson = new GsonBuilder().create();
+
+    // story path and library models, which only serialize @Expose fields
+    private static final Gson modelGson = createModelGsonBuilder().create();
+
+    private static final Gson storyPathGson = createModelGsonBuilder()
+            .registerTypeAdapter(StoryPath.class, new StoryPathDeserializer())
+            .create();
+
+    private static final Gson storyPathLibraryGson = createModelGsonBuilder()
+            .registerTypeAdapter(StoryPathLibrary.class, new StoryPathLibraryDeserializer())
+            .create();
+
+    private static GsonBuilder createModelGsonBuilder() {
+        GsonBuilder gBuild = new GsonBuilder();
+        gBuild.registerTypeAdapter(VideoCaptureTypeCard.class, new VideoCaptureTypeCardDeserializer());
+        gBuild.registerTypeAdapterFactory(new CardTypeAdapterFactory());
+        gBuild.registerTypeAdapterFactory(new StringMapTypeAdapterFactory());
+        return gBuild.excludeFieldsWithoutExposeAnnotation();
+    }
+
+    /**
+     * @return a Gson with default settings, for index, queue and metadata files
+     */
+    public static Gson getGson() {
+        return gson;
+    }
+
+    /**
+     * @return a Gson for story path models, including cards, that only handles @Expose fields
+     */
+    public static Gson getModelGson() {
+        return modelGson;
+    }
+
+    /**
+     * @return the model Gson with {@link StoryPathDeserializer} registered
+     */
+    public static Gson getStoryPathGson() {
+        return storyPathGson;
+    }
+
+    /**
+     * @return the model Gson with {@link StoryPathLibraryDeserializer} registered
+     */
+    public static Gson getStoryPathLibraryGson() {
+        return storyPathLibraryGson;
+    }
+}
@@ -10,7 +10,6 @@ import android.util.Log;
 
 import com.android.vending.expansion.zipfile.ZipResourceFile;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
@@ -28,7 +27,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -384,8 +382,7 @@ public class IndexManager {
             }
 
             if ((indexJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 indexList = gson.fromJson(indexJson, new TypeToken<ArrayList<ExpansionIndexItem>>() {
                 }.getType());
@@ -438,8 +435,7 @@ public class IndexManager {
             }
 
             if ((indexJson != null) && (indexJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 try {
                     indexList = gson.fromJson(indexJson, new TypeToken<ArrayList<InstanceIndexItem>>() {
@@ -495,8 +491,7 @@ public class IndexManager {
             }
 
             if ((indexJson != null) && (indexJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 indexList = gson.fromJson(indexJson, new TypeToken<ArrayList<InstanceIndexItem>>() {
                 }.getType());
@@ -534,8 +529,7 @@ public class IndexManager {
             contentJson = new String(buffer);
 
             if ((contentJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 contentList = gson.fromJson(contentJson, new TypeToken<ArrayList<InstanceIndexItem>>() {
                 }.getType());
@@ -579,8 +573,7 @@ public class IndexManager {
             contentJson = new String(buffer);
 
             if ((contentJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 contentList = gson.fromJson(contentJson, new TypeToken<ArrayList<InstanceIndexItem>>() {
                 }.getType());
@@ -617,8 +610,7 @@ public class IndexManager {
             metadataJson = new String(buffer);
 
             if ((metadataJson.length() > 0)) {
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 metadata = gson.fromJson(metadataJson, new TypeToken<ContentPackMetadata>() {
                 }.getType());
@@ -633,18 +625,47 @@ public class IndexManager {
 
 
     public static HashMap<String, String> loadTempateIndex (Context context) {
-        HashMap<String, String> templateMap = new HashMap<String, String>();
-
         ZipResourceFile zrf = ZipHelper.getResourceFile(context);
-        ArrayList<ZipResourceFile.ZipEntryRO> zipEntries = new ArrayList<ZipResourceFile.ZipEntryRO>(Arrays.asList(zrf.getAllEntries()));
-        for (ZipResourceFile.ZipEntryRO zipEntry : zipEntries) {
+
+        // packs built with an embedded manifest carry this map precomputed
+        HashMap<String, String> templateMap = zrf.getTemplateMap();
+        if (templateMap != null) {
+            return templateMap;
+        }
+
+        templateMap = new HashMap<String, String>();
+        for (ZipResourceFile.ZipEntryRO zipEntry : zrf.getAllEntries()) {
             // Timber.d("GOT ITEM: " + zipEntry.mFileName);
-            templateMap.put(zipEntry.mFileName.substring(zipEntry.mFileName.lastIndexOf(File.separator) + 1), zipEntry.mFileName);
+            // entries come in name order, the first with a file name wins, as with findTemplatePath()
+            String templateName = zipEntry.mFileName.substring(zipEntry.mFileName.lastIndexOf(File.separator) + 1);
+            if (!templateMap.containsKey(templateName)) {
+                templateMap.put(templateName, zipEntry.mFileName);
+            }
         }
 
         return templateMap;
     }
 
+    /**
+     * @return the path within the expansion files of the template with the given file name,
+     * or null if there is none.  uses the resource file's sorted index rather than building
+     * the whole template map, and resolves a file name shared by several entries to the same
+     * one, the lowest path.
+     */
+    public static String findTemplatePath(Context context, String templateName) {
+        ZipResourceFile zrf = ZipHelper.getResourceFile(context);
+        if (zrf == null) {
+            return null;
+        }
+
+        ZipResourceFile.ZipEntryRO zipEntry = zrf.findEntryByBasename(templateName);
+        if (zipEntry == null) {
+            return null;
+        }
+
+        return zipEntry.mFileName;
+    }
+
     public static HashMap<String, InstanceIndexItem> fillInstanceIndex(Context context, HashMap<String, InstanceIndexItem> indexList, String language) {
 
         ArrayList<File> instanceFiles = JsonHelper.getLibraryInstanceFiles(context);
@@ -695,19 +716,12 @@ public class IndexManager {
 
                 InstanceIndexItem newItem = new InstanceIndexItem(f.getAbsolutePath(), date.getTime());
 
-                String jsonString = JsonHelper.loadJSON(f.getPath(), context, "en"); // FIXME don't hardcode "en"
-
-                // if no string was loaded, cannot continue
-                if (jsonString == null) {
-                    Timber.e("json could not be loaded from " + f.getPath());
-                    // handle the same way as null spl case below
-                    return indexList;
-                }
-
                 ArrayList<String> referencedFiles = new ArrayList<String>(); // should not need to insert dependencies to check metadata
-                StoryPathLibrary spl = JsonHelper.deserializeStoryPathLibrary(jsonString, f.getAbsolutePath(), referencedFiles, context, language);
+                StoryPathLibrary spl = JsonHelper.loadStoryPathLibrary(f.getAbsolutePath(), referencedFiles, context, language);
 
+                // if nothing was loaded, cannot continue
                 if (spl == null) {
+                    Timber.e("library could not be loaded from " + f.getPath());
                     return indexList;
                 }
 
@@ -897,8 +911,7 @@ public class IndexManager {
 
                 FileOutputStream jsonStream = new FileOutputStream(jsonFile);
 
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 indexJson = gson.toJson(indexList);
 
@@ -964,8 +977,7 @@ public class IndexManager {
 
                 FileOutputStream jsonStream = new FileOutputStream(jsonFile);
 
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+                Gson gson = GsonHelper.getGson();
 
                 indexJson = gson.toJson(indexList);
 
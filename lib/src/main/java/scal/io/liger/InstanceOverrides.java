@@ -0,0 +1,231 @@
+package scal.io.liger;
+
+import timber.log.Timber;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import scal.io.liger.model.StoryPath;
+
+/**
+ * Compact form of story path instance files: instead of a copy of every card of the template the
+ * instance was started from, the file has a "cardOverrides" array in which cards that are still
+ * the same as the template's are only references to them.  All other fields are kept as they
+ * are, including the "templatePath", "language" and "version" that identify the template.
+ *
+ * Each element of "cardOverrides" stands for one card of the instance, in order:
+ * <ul>
+ * <li>if the template has a card with the same id and the instance card doesn't differ from it,
+ * the element is the card's id and "fromTemplate": true;</li>
+ * <li>otherwise the element is the whole card, so whatever the user changed can be read back
+ * without the template.</li>
+ * </ul>
+ * Cards the user hasn't touched, which are most of an instance, aren't stored at all.  Instances
+ * whose template can't be loaded when they are saved are written whole.
+ *
+ * An instance is expanded against the template as it is when the instance is loaded, even if its
+ * version has changed since the instance was saved, rather than refusing to load the user's work.
+ * This is intended: unchanged cards pick up the template's new text, the way
+ * {@link JsonHelper#updateStoryPathStrings} copies a template's text into an instance when its
+ * language changes.  A reference to a card the newer template no longer has is logged and left
+ * out, and so is every reference if the template can't be loaded at all; whole cards are always
+ * read as they are.
+ *
+ * USAGE:
+ *
+ * JsonObject tree = GsonHelper.getModelGson().toJsonTree(storyPath).getAsJsonObject();
+ * JsonObject fileTree = InstanceOverrides.compact(tree, templateLoader); // null if it can't be compacted
+ *
+ * StoryPath storyPath = StoryPathReader.readStoryPath(jsonStream, templateLoader);
+ */
+public class InstanceOverrides {
+
+    public static final String CARD_OVERRIDES = "cardOverrides";
+    public static final String FROM_TEMPLATE = "fromTemplate";
+
+    private static final String CARDS = "cards";
+    private static final String ID = "id";
+    private static final String TEMPLATE_PATH = "templatePath";
+    private static final String LANGUAGE = "language";
+
+    /**
+     * Looks up the template an instance was started from, see
+     * {@link JsonHelper#getStoryPathTemplate(String, android.content.Context, String)}.
+     */
+    public interface TemplateLoader {
+        @Nullable
+        StoryPath loadTemplate(@NonNull String templatePath, @Nullable String language);
+    }
+
+    private static volatile boolean enabled = true;
+
+    // cached template -> its cards as saved, by id; templates are never modified once cached
+    private static final WeakHashMap<StoryPath, HashMap<String, JsonObject>> templateCards = new WeakHashMap<StoryPath, HashMap<String, JsonObject>>();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * turns the compact form on or off for saves made from now on; compact files are still read
+     */
+    public static void setEnabled(boolean enabled) {
+        InstanceOverrides.enabled = enabled;
+    }
+
+    /*
+     * The template's cards serialized the way an instance's cards are, so unchanged cards compare
+     * equal.  Computed once per cached template.
+     */
+    private static HashMap<String, JsonObject> getTemplateCards(StoryPath template) {
+        synchronized (templateCards) {
+            HashMap<String, JsonObject> cards = templateCards.get(template);
+            if (cards == null) {
+                cards = new HashMap<String, JsonObject>();
+                JsonElement cardArray = GsonHelper.getModelGson().toJsonTree(template, StoryPath.class).getAsJsonObject().get(CARDS);
+                if (cardArray != null && cardArray.isJsonArray()) {
+                    for (JsonElement card : cardArray.getAsJsonArray()) {
+                        JsonElement id = card.isJsonObject() ? card.getAsJsonObject().get(ID) : null;
+                        if (id != null && id.isJsonPrimitive() && !cards.containsKey(id.getAsString())) {
+                            cards.put(id.getAsString(), card.getAsJsonObject());
+                        }
+                    }
+                }
+                templateCards.put(template, cards);
+            }
+            return cards;
+        }
+    }
+
+    /**
+     * Compacts an instance against the template named by its "templatePath" and "language".
+     * Loading the template may read the expansion files, so savers call this on the writer thread.
+     *
+     * @param tree a story path instance as serialized by {@link GsonHelper#getModelGson()}; it is
+     *             not modified, but the result shares its values
+     * @return the compact form of the instance, or null if it names no template, the template
+     * can't be loaded or some card has no id
+     */
+    @Nullable
+    public static JsonObject compact(@NonNull JsonObject tree, @NonNull TemplateLoader templateLoader) {
+        JsonElement templatePath = tree.get(TEMPLATE_PATH);
+        JsonElement language = tree.get(LANGUAGE);
+        if (templatePath == null || !templatePath.isJsonPrimitive()) {
+            return null;
+        }
+        StoryPath template = templateLoader.loadTemplate(templatePath.getAsString(),
+                (language != null && language.isJsonPrimitive()) ? language.getAsString() : null);
+        return (template == null) ? null : compact(tree, template);
+    }
+
+    /**
+     * @param tree a story path instance as serialized by {@link GsonHelper#getModelGson()}; it is
+     *             not modified, but the result shares its values
+     * @param template the template the instance was started from
+     * @return the compact form of the instance, or null if some card has no id
+     */
+    @Nullable
+    public static JsonObject compact(@NonNull JsonObject tree, @NonNull StoryPath template) {
+        HashMap<String, JsonObject> cards = getTemplateCards(template);
+
+        JsonObject compactTree = new JsonObject();
+        for (Map.Entry<String, JsonElement> member : tree.entrySet()) {
+            if (!CARDS.equals(member.getKey()) || !member.getValue().isJsonArray()) {
+                compactTree.add(member.getKey(), member.getValue());
+                continue;
+            }
+
+            JsonArray overrides = new JsonArray();
+            for (JsonElement card : member.getValue().getAsJsonArray()) {
+                JsonElement id = card.isJsonObject() ? card.getAsJsonObject().get(ID) : null;
+                if (id == null || !id.isJsonPrimitive()) {
+                    return null;
+                }
+                overrides.add(card.equals(cards.get(id.getAsString())) ? reference(id) : card);
+            }
+            compactTree.add(CARD_OVERRIDES, overrides);
+        }
+        return compactTree;
+    }
+
+    private static JsonObject reference(JsonElement id) {
+        JsonObject reference = new JsonObject();
+        reference.add(ID, id);
+        reference.addProperty(FROM_TEMPLATE, true);
+        return reference;
+    }
+
+    /**
+     * Rebuilds an instance's cards from its "cardOverrides" and its template.  References that
+     * can't be resolved, because the template is missing or no longer has the card, are logged and
+     * left out.
+     *
+     * @param template the template the instance was started from, or null if it can't be loaded
+     * @return the whole cards, in order
+     * @throws JsonParseException if an override isn't an object with an id
+     */
+    @NonNull
+    public static JsonArray expand(@NonNull JsonArray overrides, @Nullable StoryPath template) {
+        HashMap<String, JsonObject> cards = (template == null) ? null : getTemplateCards(template);
+
+        JsonArray cardArray = new JsonArray();
+        for (JsonElement element : overrides) {
+            JsonElement id = element.isJsonObject() ? element.getAsJsonObject().get(ID) : null;
+            if (id == null || !id.isJsonPrimitive()) {
+                throw new JsonParseException("card override has no id");
+            }
+            JsonObject override = element.getAsJsonObject();
+            if (!override.has(FROM_TEMPLATE)) {
+                // a card the user changed, or one the template doesn't have, stored whole
+                cardArray.add(override);
+                continue;
+            }
+
+            JsonObject templateCard = (cards == null) ? null : cards.get(id.getAsString());
+            if (templateCard == null) {
+                // a missing template has already been logged
+                if (cards != null) {
+                    Timber.w("card " + id.getAsString() + " is unchanged from a template card the template no longer has, leaving it out");
+                }
+                continue;
+            }
+            // template values aren't modified when the card is read, so they can be shared
+            cardArray.add(templateCard);
+        }
+        return cardArray;
+    }
+
+    /**
+     * Loads the template a compact instance refers to.
+     *
+     * @return the template, or null if the instance doesn't name it or it can't be loaded, in
+     * which case only the instance's whole cards can be read
+     */
+    @Nullable
+    static StoryPath loadTemplate(@Nullable TemplateLoader templateLoader, @NonNull StoryPath instance) {
+        String templatePath = instance.getTemplatePath();
+        if (templateLoader == null || templatePath == null) {
+            Timber.w("story path " + instance.getId() + " is stored as overrides of a template that can't be loaded, reading only its own cards");
+            return null;
+        }
+        StoryPath template = templateLoader.loadTemplate(templatePath, instance.getLanguage());
+        if (template == null) {
+            Timber.w("template " + templatePath + " of story path " + instance.getId() + " could not be loaded, reading only its own cards");
+            return null;
+        }
+        if (template.getVersion() != instance.getVersion()) {
+            // expanded anyway, see the class comment
+            Timber.w("story path " + instance.getId() + " is version " + instance.getVersion() + " of template " + templatePath + ", which is now version " + template.getVersion());
+        }
+        return template;
+    }
+}
@@ -10,21 +10,29 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
 import scal.io.liger.model.Card;
 import scal.io.liger.model.Dependency;
 import scal.io.liger.model.StoryPath;
@@ -671,12 +679,17 @@ public class JsonHelper {
     }
     */
 
+    /**
+     * Reads a library from a file, typically a saved instance.  Saves to the file that are still
+     * pending are written first, so every read of an instance should go through here rather than
+     * through loadJSON() and deserializeStoryPathLibrary(), which don't wait for them.
+     */
     @Nullable
     public static StoryPathLibrary loadStoryPathLibrary(@NonNull String jsonFilePath, @NonNull ArrayList<String> referencedFiles, @NonNull Context context, @NonNull String language) {
 
         //Timber.d("NEW METHOD loadStoryPathLibrary CALLED FOR " + jsonFilePath);
 
-        String storyPathLibraryJson = "";
+        StoryPathLibrary storyPathLibrary = null;
         String sdCardState = Environment.getExternalStorageState();
 
         // templates are loaded from zips, instances will not have localized file names
@@ -721,11 +734,11 @@ public class JsonHelper {
                     return null;
                 }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathLibraryJson = new String(buffer);
+                try {
+                    storyPathLibrary = StoryPathReader.readStoryPathLibrary(jsonStream);
+                } finally {
+                    jsonStream.close();
+                }
             } catch (IOException ioe) {
                 Timber.e("reading json file " + jsonFilePath + " from virtual file failed: " + ioe.getMessage());
                 return null;
@@ -734,6 +747,9 @@ public class JsonHelper {
 
             File f = new File(jsonFilePath);
 
+            // don't read the file while saves to it are pending
+            SaveExecutor.awaitWrites();
+
             try {
                 InputStream jsonStream = new FileInputStream(f);
 
@@ -742,11 +758,11 @@ public class JsonHelper {
                     return null;
                 }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathLibraryJson = new String(buffer);
+                try {
+                    storyPathLibrary = StoryPathReader.readStoryPathLibrary(jsonStream);
+                } finally {
+                    jsonStream.close();
+                }
             } catch (IOException ioe) {
                 Timber.e("reading json file " + jsonFilePath + " from SD card failed: " + ioe.getMessage());
                 return null;
@@ -756,7 +772,7 @@ public class JsonHelper {
             return null;
         }
 
-        return deserializeStoryPathLibrary(storyPathLibraryJson, jsonFilePath, referencedFiles, context, language);
+        return prepareStoryPathLibrary(storyPathLibrary, jsonFilePath, referencedFiles, context, language);
 
     }
 
@@ -767,7 +783,7 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD loadStoryPathLibraryFromZip CALLED FOR " + jsonFilePath);
 
-        String storyPathLibraryJson = "";
+        StoryPathLibrary storyPathLibrary = null;
 
 //        String localizedFilePath = jsonFilePath;
 
@@ -783,7 +799,12 @@ public class JsonHelper {
 
         // removed sd card check as expansion file should not be located on sd card
             try {
-                InputStream jsonStream = ZipHelper.getFileInputStream(jsonFilePath, context, language);
+                // a compiled form next to the json is read in its place
+                InputStream jsonStream = ZipHelper.getCompiledFileInputStream(jsonFilePath, context, language);
+                boolean compiled = (jsonStream != null);
+                if (!compiled) {
+                    jsonStream = ZipHelper.getFileInputStream(jsonFilePath, context, language);
+                }
 
                 // if there is no result with the localized path, retry with default path
 //                if ((jsonStream == null) && localizedFilePath.contains("-")) {
@@ -799,11 +820,11 @@ public class JsonHelper {
                     return null;
                 }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathLibraryJson = new String(buffer);
+                try {
+                    storyPathLibrary = compiled ? StoryPathReader.readCompiledStoryPathLibrary(jsonStream) : StoryPathReader.readStoryPathLibrary(jsonStream);
+                } finally {
+                    jsonStream.close();
+                }
             } catch (IOException ioe) {
                 Timber.e("reading json file " + jsonFilePath + " from ZIP file failed: " + ioe.getMessage());
                 return null;
@@ -830,7 +851,70 @@ public class JsonHelper {
             Timber.d("loadStoryPathLibraryFromZip() - PATH: " + localizedFilePath);
         }
 
-        return deserializeStoryPathLibrary(storyPathLibraryJson, localizedFilePath, referencedFiles, context, language);
+        storyPathLibrary = prepareStoryPathLibrary(storyPathLibrary, localizedFilePath, referencedFiles, context, language);
+
+        // the current story path and the dependencies are read next, one at a time, so pull them
+        // in with one sequential pass in the background meanwhile
+        if (storyPathLibrary != null) {
+            ZipHelper.prefetchFilesInBackground(getReferencedZipPaths(storyPathLibrary), context, language);
+        }
+
+        return storyPathLibrary;
+    }
+
+    /**
+     * @return the paths of the current story path file and the dependencies of a library that would
+     * be read from the expansion files.  the other templates are only read if the user switches to
+     * them, so they are left out rather than pushing the files that will be read out of the cache
+     */
+    @NonNull
+    private static ArrayList<String> getReferencedZipPaths(@NonNull StoryPathLibrary storyPathLibrary) {
+        ArrayList<String> paths = new ArrayList<String>();
+        if (storyPathLibrary.getCurrentStoryPathFile() != null) {
+            paths.add(storyPathLibrary.buildZipPath(storyPathLibrary.getCurrentStoryPathFile()));
+        }
+        if (storyPathLibrary.getDependencies() != null) {
+            for (Dependency dependency : storyPathLibrary.getDependencies()) {
+                paths.add(dependency.getDependencyFile());
+            }
+        }
+
+        // instance files are never in a zip
+        ArrayList<String> zipPaths = new ArrayList<String>();
+        for (String path : paths) {
+            if (path != null && !path.contains("instance") && !new File(path).exists()) {
+                zipPaths.add(path);
+            }
+        }
+        return zipPaths;
+    }
+
+    /**
+     * Asynchronous version of {@link #loadStoryPathLibraryFromZip(String, ArrayList, Context, String)},
+     * so the library can be read and parsed off the UI thread.  fails with a
+     * {@link FileNotFoundException} if the library could not be loaded.
+     */
+    @NonNull
+    public static Observable<StoryPathLibrary> observeStoryPathLibraryFromZip(@NonNull final String jsonFilePath,
+                                                                              @NonNull final ArrayList<String> referencedFiles,
+                                                                              @NonNull final Context context,
+                                                                              @NonNull final String language,
+                                                                              @NonNull Scheduler scheduler) {
+        return Observable.create(new Observable.OnSubscribe<StoryPathLibrary>() {
+            @Override
+            public void call(Subscriber<? super StoryPathLibrary> subscriber) {
+                StoryPathLibrary storyPathLibrary = loadStoryPathLibraryFromZip(jsonFilePath, referencedFiles, context, language);
+
+                if (subscriber.isUnsubscribed()) {
+                    return;
+                } else if (storyPathLibrary == null) {
+                    subscriber.onError(new FileNotFoundException(jsonFilePath));
+                } else {
+                    subscriber.onNext(storyPathLibrary);
+                    subscriber.onCompleted();
+                }
+            }
+        }).subscribeOn(scheduler);
     }
 
     @Nullable
@@ -838,14 +922,26 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD deserializeStoryPathLibrary CALLED FOR " + jsonFilePath);
 
-        GsonBuilder gBuild = new GsonBuilder();
-        gBuild.registerTypeAdapter(StoryPathLibrary.class, new StoryPathLibraryDeserializer());
-        Gson gson = gBuild.excludeFieldsWithoutExposeAnnotation().create();
+        Gson gson = GsonHelper.getStoryPathLibraryGson();
 
         // fromJson has a bug where it will return null if storyPathLibraryJson is "", therefore this method is @Nullable
         // https://github.com/google/gson/issues/457
         StoryPathLibrary storyPathLibrary = gson.fromJson(storyPathLibraryJson, StoryPathLibrary.class);
 
+        return prepareStoryPathLibrary(storyPathLibrary, jsonFilePath, referencedFiles, context, language);
+    }
+
+    /**
+     * localizes a freshly parsed library, sets its file location and dependencies and wires up
+     * its cards, whether it was parsed from a string or streamed from its file
+     */
+    @Nullable
+    private static StoryPathLibrary prepareStoryPathLibrary(@Nullable StoryPathLibrary storyPathLibrary, @NonNull String jsonFilePath, @NonNull ArrayList<String> referencedFiles, @NonNull Context context, @NonNull String language) {
+
+        if (storyPathLibrary == null) {
+            return null;
+        }
+
          if (jsonFilePath.contains("instance")) {
             Timber.d("LOCALIZING AN INSTANCE: " + jsonFilePath);
 
@@ -870,13 +966,11 @@ public class JsonHelper {
                     Timber.d("NO TEMPLATE, TRYING SOMETHING ELSE");
                     // can't identify template, can't fix language
 
-                    HashMap<String, String> templateMap = IndexManager.loadTempateIndex(context);
-
                     String templateString = jsonFilePath.substring(jsonFilePath.lastIndexOf(File.separator) + 1, jsonFilePath.indexOf("-")) + jsonFilePath.substring(jsonFilePath.lastIndexOf("."));
 
                     Timber.d("TRYING TO LOOK UP TEMPLATE FOR " + templateString);
 
-                    instanceTemplate = templateMap.get(templateString);
+                    instanceTemplate = IndexManager.findTemplatePath(context, templateString);
 
                     Timber.d("FOUND TEMPLATE: " + instanceTemplate);
                 }
@@ -989,7 +1083,13 @@ public class JsonHelper {
         return jsonFilePath;
     }
 
-    public static boolean saveStoryPathLibrary(StoryPathLibrary storyPathLibrary, String jsonFilePath) {
+    /**
+     * Saves a story path library to an instance file.  Files on the SD card are written in the background, see
+     * {@link SaveExecutor}.
+     *
+     * @return a future for whether the file was written
+     */
+    public static Future<Boolean> saveStoryPathLibrary(StoryPathLibrary storyPathLibrary, String jsonFilePath) {
 
         //Timber.d("NEW METHOD saveStoryPathLibrary CALLED FOR " + storyPathLibrary.getId() + " -> " + jsonFilePath);
 
@@ -1028,41 +1128,25 @@ public class JsonHelper {
 
             } catch (IOException ioe) {
                 Timber.e("writing json file " + jsonFilePath + " to virtual file failed: " + ioe.getMessage());
-                return false;
+                return SaveExecutor.completed(false);
             }
 
         } else if (sdCardState.equals(Environment.MEDIA_MOUNTED)) {
-            try {
-                File storyPathLibraryFile = new File(jsonFilePath + ".swap"); // NEED TO WRITE TO SWAP AND COPY
-                if (storyPathLibraryFile.exists()) {
-                    storyPathLibraryFile.delete();
-                }
-                storyPathLibraryFile.createNewFile();
-                FileOutputStream storyPathLibraryStream = new FileOutputStream(storyPathLibraryFile);
-
-                String storyPathLibraryJson = serializeStoryPathLibrary(storyPathLibrary);
-
-                byte storyPathLibraryData[] = storyPathLibraryJson.getBytes();
-                storyPathLibraryStream.write(storyPathLibraryData);
-                storyPathLibraryStream.flush();
-                storyPathLibraryStream.close();
+            // the tree is taken now, serializing it and writing the file happen in the background
+            Gson gson = GsonHelper.getModelGson();
 
-                Process p = Runtime.getRuntime().exec("mv " + jsonFilePath + ".swap " + jsonFilePath);
-
-            } catch (IOException ioe) {
-                Timber.e("writing json file " + jsonFilePath + " to SD card failed: " + ioe.getMessage());
-                return false;
-            }
+            // written to a .swap file and renamed over the file
+            return SaveExecutor.save(jsonFilePath, gson.toJsonTree(storyPathLibrary), gson);
         } else {
             Timber.e("SD card not found");
-            return false;
+            return SaveExecutor.completed(false);
         }
 
         // update file location
         // TEMP - this will break references to content in zip file.  unsure what to do...
         // storyPathLibrary.setFileLocation(jsonFilePath);
 
-        return true;
+        return SaveExecutor.completed(true);
     }
 
     @Nullable
@@ -1070,8 +1154,7 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD serializeStoryPathLibrary CALLED FOR " + storyPathLibrary.getId());
 
-        GsonBuilder gBuild = new GsonBuilder();
-        Gson gson = gBuild.excludeFieldsWithoutExposeAnnotation().create();
+        Gson gson = GsonHelper.getModelGson();
 
         String storyPathLibraryJson = gson.toJson(storyPathLibrary);
 
@@ -1083,7 +1166,7 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD loadStoryPath CALLED FOR " + jsonFilePath);
 
-        String storyPathJson = "";
+        StoryPath storyPath = null;
         String sdCardState = Environment.getExternalStorageState();
 
         // templates are loaded from zips, instances will not have localized file names
@@ -1128,11 +1211,11 @@ public class JsonHelper {
                     return null;
                 }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathJson = new String(buffer);
+                try {
+                    storyPath = StoryPathReader.readStoryPath(jsonStream, getTemplateLoader(context));
+                } finally {
+                    jsonStream.close();
+                }
             } catch (IOException ioe) {
                 Timber.e("reading json file " + jsonFilePath + " from virtual file failed: " + ioe.getMessage());
                 return null;
@@ -1141,6 +1224,9 @@ public class JsonHelper {
 
             File f = new File(jsonFilePath);
 
+            // don't read the file while saves to it are pending
+            SaveExecutor.awaitWrites();
+
             try {
                 InputStream jsonStream = new FileInputStream(f);
 
@@ -1149,11 +1235,11 @@ public class JsonHelper {
                     return null;
                 }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathJson = new String(buffer);
+                try {
+                    storyPath = StoryPathReader.readStoryPath(jsonStream, getTemplateLoader(context));
+                } finally {
+                    jsonStream.close();
+                }
             } catch (IOException ioe) {
                 Timber.e("reading json file " + jsonFilePath + " from SD card failed: " + ioe.getMessage());
                 return null;
@@ -1163,7 +1249,7 @@ public class JsonHelper {
             return null;
         }
 
-        return deserializeStoryPath(storyPathJson, jsonFilePath, storyPathLibrary, referencedFiles, context, language);
+        return prepareStoryPath(storyPath, jsonFilePath, storyPathLibrary, referencedFiles, context, language);
     }
 
     // NEW
@@ -1173,8 +1259,6 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD loadStoryPathFromZip CALLED FOR " + jsonFilePath);
 
-        String storyPathJson = "";
-
 //        String localizedFilePath = jsonFilePath;
 
         // check language setting and insert country code if necessary
@@ -1187,33 +1271,13 @@ public class JsonHelper {
 //            Timber.d("loadStoryPathFromZip() - LOCALIZED PATH: " + localizedFilePath);
 //        }
 
-        // removed sd card check as expansion file should not be located on sd card
-            try {
-                InputStream jsonStream = ZipHelper.getFileInputStream(jsonFilePath, context, language);
-
-                // if there is no result with the localized path, retry with default path
-//                if ((jsonStream == null) && localizedFilePath.contains("-")) {
-//                    localizedFilePath = localizedFilePath.substring(0, localizedFilePath.lastIndexOf("-")) + localizedFilePath.substring(localizedFilePath.lastIndexOf("."));
-//                    jsonStream = ZipHelper.getFileInputStream(localizedFilePath, context);
-//                    Timber.d("loadStoryPathFromZip() - USING DEFAULT FILE: " + localizedFilePath);
-//                } else {
-//                    Timber.d("loadStoryPathFromZip() - USING LOCALIZED FILE: " + localizedFilePath);
-//                }
-
-                if (jsonStream == null) {
-                    Timber.e("reading json file " + jsonFilePath + " from ZIP file failed (stream was null)");
-                    return null;
-                }
+        // a template started before is copied from the cache, without reading or parsing it again
+        StoryPath template = getStoryPathTemplate(jsonFilePath, context, language);
+        if (template == null) {
+            return null;
+        }
 
-                int size = jsonStream.available();
-                byte[] buffer = new byte[size];
-                jsonStream.read(buffer);
-                jsonStream.close();
-                storyPathJson = new String(buffer);
-            } catch (IOException ioe) {
-                Timber.e("reading json file " + jsonFilePath + " from ZIP file failed: " + ioe.getMessage());
-                return null;
-            }
+        StoryPath storyPath = StoryPathTemplateCache.newInstance(template);
 
         String localizedFilePath = jsonFilePath;
 
@@ -1235,18 +1299,109 @@ public class JsonHelper {
             Timber.d("loadStoryPathFromZip() - PATH: " + localizedFilePath);
         }
 
-        return deserializeStoryPath(storyPathJson, localizedFilePath, storyPathLibrary, referencedFiles, context, language);
+        return prepareStoryPath(storyPath, localizedFilePath, storyPathLibrary, referencedFiles, context, language);
+    }
+
+    /**
+     * @return the story path template at a path in the expansion files, read and parsed the first
+     * time and then from {@link StoryPathTemplateCache}, or null if it can't be read.  the result
+     * must not be modified, see {@link StoryPathTemplateCache#newInstance(StoryPath)}
+     */
+    @Nullable
+    public static StoryPath getStoryPathTemplate(@NonNull String jsonFilePath, @NonNull Context context, @Nullable String language) {
+        return getStoryPathTemplate(jsonFilePath, ZipHelper.getExpansionRoutes(context), language);
+    }
+
+    @Nullable
+    private static StoryPath getStoryPathTemplate(@NonNull String jsonFilePath, @NonNull ZipHelper.ExpansionRoutes routes, @Nullable String language) {
+
+        StoryPath template = StoryPathTemplateCache.get(jsonFilePath, language);
+        if (template != null) {
+            return template;
+        }
+
+        // removed sd card check as expansion file should not be located on sd card
+        try {
+            // a compiled form next to the json is read in its place
+            InputStream jsonStream = ZipHelper.getCompiledFileInputStream(jsonFilePath, routes, language);
+            boolean compiled = (jsonStream != null);
+            if (!compiled) {
+                jsonStream = ZipHelper.getFileInputStream(jsonFilePath, routes, language);
+            }
+
+            if (jsonStream == null) {
+                Timber.e("reading json file " + jsonFilePath + " from ZIP file failed (stream was null)");
+                return null;
+            }
+
+            try {
+                template = compiled ? StoryPathReader.readCompiledStoryPath(jsonStream) : StoryPathReader.readStoryPath(jsonStream);
+            } finally {
+                jsonStream.close();
+            }
+        } catch (IOException ioe) {
+            Timber.e("reading json file " + jsonFilePath + " from ZIP file failed: " + ioe.getMessage());
+            return null;
+        }
+
+        if (template == null) {
+            return null;
+        }
+        StoryPathTemplateCache.put(jsonFilePath, language, template);
+        return template;
+    }
+
+    /*
+     * loads the templates of compact instances, see InstanceOverrides
+     */
+    private static InstanceOverrides.TemplateLoader getTemplateLoader(@NonNull Context context) {
+        return getTemplateLoader(ZipHelper.getExpansionRoutes(context));
+    }
+
+    /*
+     * the routes are resolved by the caller, so the loader can be used on another thread
+     */
+    private static InstanceOverrides.TemplateLoader getTemplateLoader(@NonNull final ZipHelper.ExpansionRoutes routes) {
+        return new InstanceOverrides.TemplateLoader() {
+            @Override
+            public StoryPath loadTemplate(@NonNull String templatePath, @Nullable String language) {
+                return getStoryPathTemplate(templatePath, routes, language);
+            }
+        };
     }
 
     public static StoryPath deserializeStoryPath(String storyPathJson, String jsonFilePath, StoryPathLibrary storyPathLibrary, ArrayList<String> referencedFiles, Context context, String language) {
 
         //Timber.d("NEW METHOD deserializeStoryPath CALLED FOR " + jsonFilePath);
 
-        GsonBuilder gBuild = new GsonBuilder();
-        gBuild.registerTypeAdapter(StoryPath.class, new StoryPathDeserializer());
-        Gson gson = gBuild.excludeFieldsWithoutExposeAnnotation().create();
+        StoryPath storyPath;
+        if (storyPathJson.contains("\"" + InstanceOverrides.CARD_OVERRIDES + "\"")) {
+            // a compact instance, its cards are rebuilt from its template
+            try {
+                storyPath = StoryPathReader.readStoryPath(new ByteArrayInputStream(storyPathJson.getBytes(Charset.forName("UTF-8"))), getTemplateLoader(context));
+            } catch (IOException ioe) {
+                Timber.e("reading json for " + jsonFilePath + " failed: " + ioe.getMessage());
+                return null;
+            }
+        } else {
+            Gson gson = GsonHelper.getStoryPathGson();
+
+            storyPath = gson.fromJson(storyPathJson, StoryPath.class);
+        }
 
-        StoryPath storyPath = gson.fromJson(storyPathJson, StoryPath.class);
+        return prepareStoryPath(storyPath, jsonFilePath, storyPathLibrary, referencedFiles, context, language);
+    }
+
+    /**
+     * localizes a freshly parsed story path, sets its file location, library and dependencies
+     * and wires up its cards, whether it was parsed from a string or streamed from its file
+     */
+    @Nullable
+    private static StoryPath prepareStoryPath(StoryPath storyPath, String jsonFilePath, StoryPathLibrary storyPathLibrary, ArrayList<String> referencedFiles, Context context, String language) {
+
+        if (storyPath == null) {
+            return null;
+        }
 
         if (jsonFilePath.contains("instance")) {
             Timber.d("LOCALIZING AN INSTANCE: " + jsonFilePath);
@@ -1272,13 +1427,11 @@ public class JsonHelper {
                     Timber.d("NO TEMPLATE, TRYING SOMETHING ELSE");
                     // can't identify template, can't fix language
 
-                    HashMap<String, String> templateMap = IndexManager.loadTempateIndex(context);
-
                     String templateString = jsonFilePath.substring(jsonFilePath.lastIndexOf(File.separator) + 1, jsonFilePath.indexOf("-")) + jsonFilePath.substring(jsonFilePath.lastIndexOf("."));
 
                     Timber.d("TRYING TO LOOK UP TEMPLATE FOR " + templateString);
 
-                    instanceTemplate = templateMap.get(templateString);
+                    instanceTemplate = IndexManager.findTemplatePath(context, templateString);
 
                     Timber.d("FOUND TEMPLATE: " + instanceTemplate);
                 }
@@ -1388,7 +1541,13 @@ public class JsonHelper {
         return jsonFilePath;
     }
 
-    public static boolean saveStoryPath(StoryPath storyPath, String jsonFilePath) {
+    /**
+     * Saves a story path to an instance file.  Files on the SD card are written in the background, see
+     * {@link SaveExecutor}.
+     *
+     * @return a future for whether the file was written
+     */
+    public static Future<Boolean> saveStoryPath(StoryPath storyPath, String jsonFilePath) {
 
         //Timber.d("NEW METHOD getStoryPathSaveFileName CALLED FOR " + storyPath.getId() + " -> " + jsonFilePath);
 
@@ -1427,41 +1586,47 @@ public class JsonHelper {
 
             } catch (IOException ioe) {
                 Timber.e("writing json file " + jsonFilePath + " to virtual file failed: " + ioe.getMessage());
-                return false;
+                return SaveExecutor.completed(false);
             }
 
         } else if (sdCardState.equals(Environment.MEDIA_MOUNTED)) {
-            try {
-                File storyPathFile = new File(jsonFilePath + ".swap"); // NEED TO WRITE TO SWAP AND COPY
-                if (storyPathFile.exists()) {
-                    storyPathFile.delete();
-                }
-                storyPathFile.createNewFile();
-                FileOutputStream storyPathStream = new FileOutputStream(storyPathFile);
-
-                String storyPathJson = serializeStoryPath(storyPath);
-
-                byte storyPathData[] = storyPathJson.getBytes();
-                storyPathStream.write(storyPathData);
-                storyPathStream.flush();
-                storyPathStream.close();
-
-                Process p = Runtime.getRuntime().exec("mv " + jsonFilePath + ".swap " + jsonFilePath);
+            // the tree is taken now, serializing it and writing the file happen in the background
+            final Gson gson = GsonHelper.getModelGson();
+            final JsonObject tree = gson.toJsonTree(storyPath).getAsJsonObject();
+
+            // the file only keeps what differs from the template, if the template is at hand.  it
+            // is looked up on the writer thread, as it may have to be read from the expansion files,
+            // through routes resolved here with the story path's own context
+            final InstanceOverrides.TemplateLoader templateLoader;
+            if (InstanceOverrides.isEnabled() && (storyPath.getTemplatePath() != null) && (storyPath.getContext() != null)) {
+                templateLoader = getTemplateLoader(ZipHelper.getExpansionRoutes(storyPath.getContext()));
+            } else {
+                templateLoader = null;
+            }
 
-            } catch (IOException ioe) {
-                Timber.e("writing json file " + jsonFilePath + " to SD card failed: " + ioe.getMessage());
-                return false;
+            if (templateLoader == null) {
+                // written to a .swap file and renamed over the file
+                return SaveExecutor.save(jsonFilePath, tree, gson);
             }
+            // compacted on the writer thread, coalesced like any other save
+            final String filePath = jsonFilePath;
+            return SaveExecutor.schedule(filePath, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    JsonObject fileTree = InstanceOverrides.compact(tree, templateLoader);
+                    return SaveExecutor.write(filePath, (fileTree == null) ? tree : fileTree, gson);
+                }
+            });
         } else {
             Timber.e("SD card not found");
-            return false;
+            return SaveExecutor.completed(false);
         }
 
         // update file location
         // TEMP - this will break references to content in zip file.  unsure what to do...
         // storyPath.setFileLocation(jsonFilePath);
 
-        return true;
+        return SaveExecutor.completed(true);
     }
 
     @Nullable
@@ -1469,8 +1634,7 @@ public class JsonHelper {
 
         //Timber.d("NEW METHOD serializeStoryPath CALLED FOR " + storyPath.getId());
 
-        GsonBuilder gBuild = new GsonBuilder();
-        Gson gson = gBuild.excludeFieldsWithoutExposeAnnotation().create();
+        Gson gson = GsonHelper.getModelGson();
 
         // set aside references to prevent circular dependencies when serializing
         /*
@@ -1498,6 +1662,7 @@ public class JsonHelper {
 
     public static void cleanup (String swapFilePath) {
         // delete lingering .swap files from failed saves
+        SaveExecutor.awaitWrites();
         String swapFilter = "*.swap";
 
         Timber.d("CLEANUP: DELETING " + swapFilter + " FROM " + swapFilePath);
@@ -19,6 +19,8 @@ import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
+import com.android.vending.expansion.zipfile.ZipIndexFile;
+import com.android.vending.expansion.zipfile.ZipVerifier;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
@@ -152,20 +154,30 @@ public class LigerAltDownloadManager implements Runnable {
                                 downloadRequired = true;
                             } else {
 
-                                // hash check?
-
-                                // partial file is correct size, rename
+                                // partial file is correct size, check contents before renaming
 
                                 File actualFile = new File(partFile.getPath().replace(".part", ""));
 
-                                try {
-                                    FileUtils.moveFile(partFile, actualFile);
+                                int result = ZipVerifier.verify(partFile, getChecksum(partFile));
+                                if (result == ZipVerifier.CORRUPT) {
+                                    Timber.e(partFile.getPath() + " IS CORRUPT, DELETING");
                                     FileUtils.deleteQuietly(partFile);
-                                    Timber.d("MOVED COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
-                                } catch (IOException ioe) {
-                                    Timber.e("FAILED TO MOVE COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
-                                    ioe.printStackTrace();
+                                    FileUtils.deleteQuietly(ZipVerifier.getStampFile(partFile));
                                     downloadRequired = true;
+                                } else if (result == ZipVerifier.UNKNOWN) {
+                                    // not known to be bad, leave it to be checked again next time
+                                    Timber.e("COULD NOT VERIFY " + partFile.getPath() + ", LEAVING IT IN PLACE");
+                                } else {
+                                    try {
+                                        FileUtils.moveFile(partFile, actualFile);
+                                        FileUtils.deleteQuietly(partFile);
+                                        ZipVerifier.moveStamp(partFile, actualFile);
+                                        Timber.d("MOVED COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
+                                    } catch (IOException ioe) {
+                                        Timber.e("FAILED TO MOVE COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
+                                        ioe.printStackTrace();
+                                        downloadRequired = true;
+                                    }
                                 }
                             }
                         } else if (partFile.getPath().contains(Constants.PATCH)) {
@@ -174,20 +186,30 @@ public class LigerAltDownloadManager implements Runnable {
                                 downloadRequired = true;
                             } else {
 
-                                // hash check?
-
-                                // partial file is correct size, rename
+                                // partial file is correct size, check contents before renaming
 
                                 File actualFile = new File(partFile.getPath().replace(".part", ""));
 
-                                try {
-                                    FileUtils.moveFile(partFile, actualFile);
+                                int result = ZipVerifier.verify(partFile, getChecksum(partFile));
+                                if (result == ZipVerifier.CORRUPT) {
+                                    Timber.e(partFile.getPath() + " IS CORRUPT, DELETING");
                                     FileUtils.deleteQuietly(partFile);
-                                    Timber.d("MOVED COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
-                                } catch (IOException ioe) {
-                                    Timber.e("FAILED TO MOVE COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
-                                    ioe.printStackTrace();
+                                    FileUtils.deleteQuietly(ZipVerifier.getStampFile(partFile));
                                     downloadRequired = true;
+                                } else if (result == ZipVerifier.UNKNOWN) {
+                                    // not known to be bad, leave it to be checked again next time
+                                    Timber.e("COULD NOT VERIFY " + partFile.getPath() + ", LEAVING IT IN PLACE");
+                                } else {
+                                    try {
+                                        FileUtils.moveFile(partFile, actualFile);
+                                        FileUtils.deleteQuietly(partFile);
+                                        ZipVerifier.moveStamp(partFile, actualFile);
+                                        Timber.d("MOVED COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
+                                    } catch (IOException ioe) {
+                                        Timber.e("FAILED TO MOVE COMPLETED FILE " + partFile.getPath() + " TO " + actualFile.getPath());
+                                        ioe.printStackTrace();
+                                        downloadRequired = true;
+                                    }
                                 }
                             }
                         } else {
@@ -913,6 +935,15 @@ public class LigerAltDownloadManager implements Runnable {
         }
     }
 
+    // published checksum of the main or patch file the given download belongs to
+    private String getChecksum(File file) {
+        if (file.getName().contains(Constants.PATCH)) {
+            return indexItem.getPatchFileChecksum();
+        } else {
+            return indexItem.getExpansionFileChecksum();
+        }
+    }
+
     private boolean handleFile (File tempFile) {
 
         File appendedFile = null;
@@ -965,6 +996,20 @@ public class LigerAltDownloadManager implements Runnable {
             return false;
         }
 
+        // check entry crcs and the published checksum before the old obb is replaced
+        File downloadedFile = ((appendedFile != null) && appendedFile.exists()) ? appendedFile : tempFile;
+        int result = ZipVerifier.verify(downloadedFile, getChecksum(tempFile));
+        if (result == ZipVerifier.CORRUPT) {
+            Timber.e("FINISHED DOWNLOAD OF " + downloadedFile.getPath() + " BUT IT IS CORRUPT, DELETING");
+            FileUtils.deleteQuietly(downloadedFile);
+            FileUtils.deleteQuietly(ZipVerifier.getStampFile(downloadedFile));
+            return false;
+        } else if (result == ZipVerifier.UNKNOWN) {
+            // kept, so the partial file check verifies it again before it is installed
+            Timber.e("FINISHED DOWNLOAD OF " + downloadedFile.getPath() + " BUT IT COULD NOT BE VERIFIED, NOT INSTALLING IT YET");
+            return false;
+        }
+
         try {
             // clean up old obbs before renaming new file
             File directory = new File(actualFile.getParent());
@@ -978,7 +1023,8 @@ public class LigerAltDownloadManager implements Runnable {
 
             Timber.d("CLEANUP: DELETING " + nameFilter + " FROM " + directory.getPath());
 
-            WildcardFileFilter oldFileFilter = new WildcardFileFilter(nameFilter);
+            // also remove entry indexes and verification stamps left next to the old obbs
+            WildcardFileFilter oldFileFilter = new WildcardFileFilter(new String[] { nameFilter, nameFilter + ZipIndexFile.SUFFIX, nameFilter + ZipVerifier.SUFFIX });
             for (File oldFile : FileUtils.listFiles(directory, oldFileFilter, null)) {
                 Timber.d("CLEANUP: FOUND " + oldFile.getPath() + ", DELETING");
                 FileUtils.deleteQuietly(oldFile);
@@ -1003,6 +1049,9 @@ public class LigerAltDownloadManager implements Runnable {
             return false;
         }
 
+        // the move keeps length and modification time, so the stamp still holds for the new name
+        ZipVerifier.moveStamp(downloadedFile, actualFile);
+
         // download finished, must clear ZipHelper cache
         ZipHelper.clearCache();
 
@@ -186,6 +186,7 @@ public class MainActivity extends LockableActivity implements StoryPathLibrary.S
 
             String jsonFilePath = null;
             String json = null;
+            StoryPathLibrary instance = null;
             if (i.hasExtra(INTENT_KEY_STORYPATH_LIBRARY_ID)) {
                 jsonFilePath = JsonHelper.getJsonPathByKey(this, i.getStringExtra(INTENT_KEY_STORYPATH_LIBRARY_ID));
                 json = JsonHelper.loadJSONFromZip(jsonFilePath, this, language);
@@ -195,10 +196,12 @@ public class MainActivity extends LockableActivity implements StoryPathLibrary.S
                 json = JsonHelper.loadJSONFromZip(jsonFilePath, this, language);
             } else if (i.hasExtra(INTENT_KEY_STORYPATH_INSTANCE_PATH)) {
                 jsonFilePath = i.getStringExtra(INTENT_KEY_STORYPATH_INSTANCE_PATH);
-                json = JsonHelper.loadJSON(jsonFilePath, MainActivity.this, language);
+                instance = loadInstance(jsonFilePath);
             }
 
-            if (json != null) {
+            if (instance != null) {
+                initFromStoryPathLibrary(instance);
+            } else if (json != null) {
                 initFromJson(json, jsonFilePath);
             } else {
                 showJsonSelectorPopup();
@@ -289,6 +292,14 @@ public class MainActivity extends LockableActivity implements StoryPathLibrary.S
 
                     // TEMP - unsure how to best determine new story vs. existing story
 
+                    if (jsonPath.contains("instance") && new File(jsonPath).exists()) {
+                        StoryPathLibrary instance = loadInstance(jsonPath);
+                        if (instance != null) {
+                            initFromStoryPathLibrary(instance);
+                            return;
+                        }
+                    }
+
                     String json = JsonHelper.loadJSON(MainActivity.this, language);
 
                     initFromJson(json, jsonPath);
@@ -336,7 +347,21 @@ public class MainActivity extends LockableActivity implements StoryPathLibrary.S
             }
         }
 
-        mStoryPathLibrary = JsonHelper.deserializeStoryPathLibrary(json, jsonPath, referencedFiles, MainActivity.this, language);
+        initFromStoryPathLibrary(JsonHelper.deserializeStoryPathLibrary(json, jsonPath, referencedFiles, MainActivity.this, language));
+    }
+
+    /*
+     * saved instances are read with JsonHelper.loadStoryPathLibrary() rather than as a json
+     * string, so saves still pending are written first
+     */
+    private StoryPathLibrary loadInstance(String jsonPath) {
+        Timber.d("INIT FROM SAVED INSTANCE");
+        // should not need to insert dependencies into a saved instance
+        return JsonHelper.loadStoryPathLibrary(jsonPath, new ArrayList<String>(), MainActivity.this, language);
+    }
+
+    private void initFromStoryPathLibrary(StoryPathLibrary storyPathLibrary) {
+        mStoryPathLibrary = storyPathLibrary;
         configureStoryPathLibrary();
         mStoryPathLibrary.setStoryPathLibraryListener(MainActivity.this);
 
@@ -248,12 +248,7 @@ public class MediaHelper {
                                 // give us access to a FileDescriptor, which we could use to generate
                                 // a video / audio thumbnail without first copying the stream to file.
 
-                                //File tempDirectory = context.getExternalFilesDir(null);
-                                File tempDirectory = StorageHelper.getActualStorageDirectory(context);
-
-                                File tempFile = ZipHelper.getTempFile(relativeExpansionPath,
-                                                                      tempDirectory.getAbsolutePath(),
-                                                                      context);
+                                File tempFile = ZipHelper.getExtractedFile(relativeExpansionPath, context);
                                 try {
                                     return generateMediaThumbnail(context, tempFile, thumbFile, mediaType);
                                 } catch (IOException e) {
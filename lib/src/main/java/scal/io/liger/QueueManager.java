@@ -9,14 +9,12 @@ import android.util.Log;
 
 import com.android.vending.expansion.zipfile.ZipResourceFile;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 
 import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.concurrent.Future;
 
 import scal.io.liger.model.ExpansionIndexItem;
 import scal.io.liger.model.InstanceIndexItem;
@@ -113,6 +112,9 @@ public class QueueManager {
 
         //Timber.d("READING JSON FILE " + jsonFilePath + downloadQueueName + " FROM SD CARD");
 
+        // don't read the file while saves to it are pending
+        SaveExecutor.awaitWrites();
+
         File jsonFile = new File(jsonFilePath + downloadQueueName);
         if (!jsonFile.exists()) {
             Timber.e(jsonFilePath + downloadQueueName + " WAS NOT FOUND");
@@ -141,8 +143,7 @@ public class QueueManager {
         }
 
         if ((queueJson.length() > 0)) {
-            GsonBuilder gBuild = new GsonBuilder();
-            Gson gson = gBuild.create();
+            Gson gson = GsonHelper.getGson();
 
             // trying to account for issues with old queue files
             try {
@@ -253,47 +254,22 @@ public class QueueManager {
     }
     */
 
-    private static synchronized void saveQueue(Context context, HashMap<Long, QueueItem> queueMap, String jsonFileName) {
-
-        String queueJson = "";
+    private static synchronized Future<Boolean> saveQueue(Context context, HashMap<Long, QueueItem> queueMap, String jsonFileName) {
 
         String jsonFilePath = ZipHelper.getFileFolderName(context);
 
         //Timber.d("WRITING JSON FILE " + jsonFilePath + jsonFileName + " TO SD CARD");
 
-        File jsonFile = new File(jsonFilePath + jsonFileName + ".tmp"); // write to temp and rename
-        if (jsonFile.exists()) {
-            jsonFile.delete();
-        }
-
         String sdCardState = Environment.getExternalStorageState();
 
         if (sdCardState.equals(Environment.MEDIA_MOUNTED)) {
-            try {
-                jsonFile.createNewFile();
-
-                FileOutputStream jsonStream = new FileOutputStream(jsonFile);
-
-                GsonBuilder gBuild = new GsonBuilder();
-                Gson gson = gBuild.create();
+            Gson gson = GsonHelper.getGson();
 
-                queueJson = gson.toJson(queueMap);
-
-                byte[] buffer = queueJson.getBytes();
-                jsonStream.write(buffer);
-                jsonStream.flush();
-                jsonStream.close();
-                jsonStream = null;
-
-                Process p = Runtime.getRuntime().exec("mv " + jsonFilePath + jsonFileName + ".tmp " + jsonFilePath + jsonFileName);
-
-            } catch (IOException ioe) {
-                Timber.e("WRITING JSON FILE " + jsonFilePath + jsonFileName + " TO SD CARD FAILED");
-                return;
-            }
+            // the queue is copied now and written in the background, to a .swap file that is renamed over the file
+            return SaveExecutor.save(jsonFilePath + jsonFileName, gson.toJsonTree(queueMap), gson);
         } else {
             Timber.e("SD CARD WAS NOT FOUND");
-            return;
+            return SaveExecutor.completed(false);
         }
     }
 }
@@ -0,0 +1,209 @@
+package scal.io.liger;
+
+import timber.log.Timber;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes story path, library and queue files on one background thread, so saving doesn't block
+ * the calling (usually UI) thread on file I/O.
+ *
+ * A save waits {@link #COALESCE_DELAY_MS} before it is written, and saves of the same file made
+ * meanwhile replace it: a burst of saves writes the file once, with the last tree saved, and
+ * every save in the burst gets the same future.  Each file is serialized straight into
+ * "file.swap", which is then renamed over the file, so a reader sees the old or the new file
+ * whole.
+ *
+ * Trees are taken with Gson.toJsonTree() on the thread that owns the model, and must not be
+ * changed afterwards, so the model can keep changing while the tree is written.
+ *
+ * USAGE:
+ *
+ * Future<Boolean> saved = SaveExecutor.save(jsonFilePath, gson.toJsonTree(model), gson);
+ *
+ * SaveExecutor.awaitWrites(); // before reading a file that may have saves pending
+ */
+public class SaveExecutor {
+
+    public static final String SWAP_EXTENSION = ".swap";
+
+    // how long a save waits for more saves of the same file
+    static final long COALESCE_DELAY_MS = 300;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "SaveExecutor");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    // file path -> save that hasn't started writing yet, guarded by SaveExecutor.class
+    private static final HashMap<String, PendingSave> pendingSaves = new HashMap<String, PendingSave>();
+
+    private static class PendingSave implements Callable<Boolean> {
+
+        final String filePath;
+        final FutureTask<Boolean> future = new FutureTask<Boolean>(this);
+
+        // the last save's write, guarded by SaveExecutor.class
+        Callable<Boolean> task;
+
+        PendingSave(String filePath) {
+            this.filePath = filePath;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            Callable<Boolean> saveTask;
+            synchronized (SaveExecutor.class) {
+                // later saves of the file start a new burst
+                if (pendingSaves.get(filePath) == this) {
+                    pendingSaves.remove(filePath);
+                }
+                saveTask = task;
+            }
+            return saveTask.call();
+        }
+    }
+
+    /**
+     * Queues a save of a file, coalesced with other saves of the same file that are still waiting.
+     *
+     * @param filePath the file to save to
+     * @param tree the file's contents; it must not be modified afterwards
+     * @param gson the Gson to write the tree with
+     * @return a future for whether the file was written
+     */
+    public static Future<Boolean> save(@NonNull final String filePath, @NonNull final JsonElement tree, @NonNull final Gson gson) {
+        return schedule(filePath, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return write(filePath, tree, gson);
+            }
+        });
+    }
+
+    /**
+     * Queues a task that saves a file, coalesced like {@link #save(String, JsonElement, Gson)}:
+     * if a save of the same file is still waiting, the task replaces that save's write and only
+     * the last one runs.  The task must write everything the replaced ones would have written.
+     *
+     * @return a future for whether the file was written
+     */
+    static synchronized Future<Boolean> schedule(@NonNull String filePath, @NonNull Callable<Boolean> task) {
+        PendingSave pendingSave = pendingSaves.get(filePath);
+        if (pendingSave == null) {
+            pendingSave = new PendingSave(filePath);
+            pendingSaves.put(filePath, pendingSave);
+            writer.schedule(pendingSave.future, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } else {
+            Timber.d("coalescing save of " + filePath + " with the one pending");
+        }
+        pendingSave.task = task;
+        return pendingSave.future;
+    }
+
+    /**
+     * Runs a task on the writer thread without waiting, ahead of the saves still waiting to be
+     * coalesced.
+     */
+    static void execute(@NonNull Runnable task) {
+        writer.execute(task);
+    }
+
+    /**
+     * @return a future that is already done, for saves that were made on the calling thread
+     */
+    static Future<Boolean> completed(final boolean result) {
+        FutureTask<Boolean> future = new FutureTask<Boolean>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return result;
+            }
+        });
+        future.run();
+        return future;
+    }
+
+    /**
+     * Writes a tree to a file through its swap file.  Runs on the writer thread.
+     *
+     * @return whether the file was written
+     */
+    static boolean write(String filePath, JsonElement tree, Gson gson) {
+        File file = new File(filePath);
+        File swapFile = new File(filePath + SWAP_EXTENSION);
+        try {
+            JsonWriter out = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(swapFile), UTF_8)));
+            try {
+                gson.toJson(tree, out);
+            } finally {
+                out.close();
+            }
+            if (!swapFile.renameTo(file)) {
+                throw new IOException("could not rename " + swapFile.getPath() + " to " + file.getName());
+            }
+            return true;
+        } catch (IOException | JsonIOException e) {
+            Timber.e("writing json file " + filePath + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // writes the saves still waiting to be coalesced, on the writer thread
+    private static void runPendingSaves() {
+        ArrayList<PendingSave> saves;
+        synchronized (SaveExecutor.class) {
+            saves = new ArrayList<PendingSave>(pendingSaves.values());
+        }
+        for (PendingSave save : saves) {
+            // a FutureTask only runs once, so its scheduled run does nothing
+            save.future.run();
+        }
+    }
+
+    /**
+     * Writes every save made so far, without waiting out the coalescing delay, and waits until
+     * they have been written.  Must not be called on the writer thread.
+     */
+    public static void awaitWrites() {
+        try {
+            writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runPendingSaves();
+                }
+            }).get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ee) {
+            Timber.e("waiting for saves failed: " + ee.getMessage());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package scal.io.liger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Build-time tool that compiles story path and library JSON into the binary form read by
+ * {@link BinaryJsonReader}.  JSON stays the authoring format; a pack that includes
+ * "name.spbin" next to "name.json" has it read by the zip loaders in {@link JsonHelper} instead,
+ * which saves tokenizing the text and resolving each card's class on every open.
+ *
+ * Compiling:
+ * <ul>
+ * <li>stores each distinct string, member name and number literal once;</li>
+ * <li>writes each element of the top level "cards" array with its fully qualified class name,
+ * resolved against the document's "classPackage" as {@link CardTypeAdapterFactory} would;</li>
+ * <li>keeps the JSON's members in order, so the document reads back exactly as the JSON does.</li>
+ * </ul>
+ * A compiled file records the CRC-32 of the JSON it was compiled from, and is only read in place
+ * of a JSON entry with that CRC from the same archive, so one that wasn't rebuilt after its JSON
+ * changed is ignored rather than read.  Only Gson and the standard library
+ * are used, so it can be run on a build machine:
+ * <pre>
+ * java -cp gson.jar:classes scal.io.liger.StoryPathCompiler learning_guide/*.json
+ * </pre>
+ */
+public class StoryPathCompiler {
+
+    public static final String JSON_EXTENSION = ".json";
+    public static final String COMPILED_EXTENSION = ".spbin";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // string -> index in the string table, in order of first use
+    private final HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private StoryPathCompiler() {
+    }
+
+    /**
+     * @return the path of the compiled form of a .json path, or null if it isn't one
+     */
+    public static String getCompiledPath(String jsonPath) {
+        if (!jsonPath.endsWith(JSON_EXTENSION)) {
+            return null;
+        }
+        return jsonPath.substring(0, jsonPath.length() - JSON_EXTENSION.length()) + COMPILED_EXTENSION;
+    }
+
+    /**
+     * Compiles a story path or library document.
+     *
+     * @param sourceCrc32 the CRC-32 of the JSON file the document was parsed from, which the zip
+     *                    loaders compare with the CRC of the JSON entry before reading the
+     *                    compiled file in its place
+     * @return the compiled document
+     * @throws IllegalArgumentException if the document isn't a JSON object
+     */
+    public static byte[] compile(JsonElement document, long sourceCrc32) throws IOException {
+        if (!document.isJsonObject()) {
+            throw new IllegalArgumentException("a story path or library must be a JSON object");
+        }
+        StoryPathCompiler compiler = new StoryPathCompiler();
+        compiler.writeDocument(document.getAsJsonObject());
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream(compiler.body.size() + compiler.strings.size() * 16);
+        DataOutputStream out = new DataOutputStream(compiled);
+        out.writeInt(BinaryJsonReader.MAGIC);
+        out.writeInt(BinaryJsonReader.VERSION);
+        out.writeInt((int) sourceCrc32);
+        writeVarInt(out, compiler.strings.size());
+        for (String string : compiler.strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+        compiler.body.writeTo(out);
+        out.flush();
+        return compiled.toByteArray();
+    }
+
+    /**
+     * Compiles a .json file into the .spbin file next to it.
+     *
+     * @return the compiled file
+     */
+    public static File compile(File jsonFile) throws IOException {
+        String compiledPath = getCompiledPath(jsonFile.getPath());
+        if (compiledPath == null) {
+            throw new IllegalArgumentException(jsonFile.getPath() + " is not a " + JSON_EXTENSION + " file");
+        }
+
+        byte[] json = new byte[(int) jsonFile.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(jsonFile));
+        try {
+            in.readFully(json);
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        JsonElement document = new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(json), UTF_8));
+
+        File compiledFile = new File(compiledPath);
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(compiledFile));
+        try {
+            out.write(compile(document, crc.getValue()));
+        } finally {
+            out.close();
+        }
+        return compiledFile;
+    }
+
+    private void writeDocument(JsonObject document) throws IOException {
+        JsonElement classPackage = document.get("classPackage");
+        String resolvePackage = classPackage != null && classPackage.isJsonPrimitive() ? classPackage.getAsString() : null;
+
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(BinaryJsonReader.TAG_OBJECT);
+        writeVarInt(out, document.entrySet().size());
+        for (Map.Entry<String, JsonElement> member : document.entrySet()) {
+            writeVarInt(out, indexOf(member.getKey()));
+            if ("cards".equals(member.getKey()) && member.getValue().isJsonArray()) {
+                JsonArray cards = member.getValue().getAsJsonArray();
+                out.writeByte(BinaryJsonReader.TAG_ARRAY);
+                writeVarInt(out, cards.size());
+                for (JsonElement card : cards) {
+                    writeCard(out, card, resolvePackage);
+                }
+            } else {
+                writeValue(out, member.getValue());
+            }
+        }
+        out.flush();
+    }
+
+    private void writeCard(DataOutputStream out, JsonElement card, String classPackage) throws IOException {
+        JsonElement type = card.isJsonObject() ? card.getAsJsonObject().get("type") : null;
+        if (type == null || !type.isJsonPrimitive() || (classPackage == null && !type.getAsString().contains("."))) {
+            // left for the loader to report, as it would for the JSON
+            writeValue(out, card);
+            return;
+        }
+
+        String cardType = type.getAsString();
+        String fqCardType = cardType.contains(".") ? cardType : classPackage + "." + cardType;
+
+        out.writeByte(BinaryJsonReader.TAG_CARD);
+        writeVarInt(out, indexOf(fqCardType));
+        writeMembers(out, card.getAsJsonObject());
+    }
+
+    private void writeMembers(DataOutputStream out, JsonObject object) throws IOException {
+        writeVarInt(out, object.entrySet().size());
+        for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+            writeVarInt(out, indexOf(member.getKey()));
+            writeValue(out, member.getValue());
+        }
+    }
+
+    private void writeValue(DataOutputStream out, JsonElement value) throws IOException {
+        if (value.isJsonNull()) {
+            out.writeByte(BinaryJsonReader.TAG_NULL);
+        } else if (value.isJsonObject()) {
+            out.writeByte(BinaryJsonReader.TAG_OBJECT);
+            writeMembers(out, value.getAsJsonObject());
+        } else if (value.isJsonArray()) {
+            JsonArray array = value.getAsJsonArray();
+            out.writeByte(BinaryJsonReader.TAG_ARRAY);
+            writeVarInt(out, array.size());
+            for (JsonElement element : array) {
+                writeValue(out, element);
+            }
+        } else {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.writeByte(primitive.getAsBoolean() ? BinaryJsonReader.TAG_TRUE : BinaryJsonReader.TAG_FALSE);
+            } else if (primitive.isNumber()) {
+                // the literal as written, so it reads back with the same precision
+                out.writeByte(BinaryJsonReader.TAG_NUMBER);
+                writeVarInt(out, indexOf(primitive.getAsString()));
+            } else {
+                out.writeByte(BinaryJsonReader.TAG_STRING);
+                writeVarInt(out, indexOf(primitive.getAsString()));
+            }
+        }
+    }
+
+    private int indexOf(String string) {
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: StoryPathCompiler <file.json>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            File jsonFile = new File(arg);
+            File compiledFile = compile(jsonFile);
+            System.out.println(compiledFile.getPath() + ": " + jsonFile.length() + " -> " + compiledFile.length() + " bytes");
+        }
+    }
+}
@@ -5,7 +5,6 @@ import timber.log.Timber;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -28,7 +27,6 @@ import scal.io.liger.model.MediaFile;
 import scal.io.liger.model.PublishProfile;
 import scal.io.liger.model.StoryPath;
 import scal.io.liger.model.StoryPathLibrary;
-import scal.io.liger.model.VideoCaptureTypeCard;
 
 /**
  * Created by mnbogner on 7/10/14.
@@ -189,10 +187,7 @@ public class StoryPathLibraryDeserializer implements JsonDeserializer<StoryPathL
             spl.setTemplatePath(templatePath);
         }
 
-        GsonBuilder gBuild = new GsonBuilder();
-        gBuild.registerTypeAdapter(MilestoneCardDeserializer.class, new MilestoneCardDeserializer());
-        gBuild.registerTypeAdapter(VideoCaptureTypeCard.class, new VideoCaptureTypeCardDeserializer());
-        Gson gson = gBuild.excludeFieldsWithoutExposeAnnotation().create();
+        Gson gson = GsonHelper.getModelGson();
 
         JsonObject tempObj = null;
 
@@ -290,15 +285,9 @@ public class StoryPathLibraryDeserializer implements JsonDeserializer<StoryPathL
             for (int i = 0; i < jArr.size(); i++) {
                 JsonObject arrObj = jArr.get(i).getAsJsonObject();
                 String cardType = arrObj.get("type").getAsString();
-                String fqCardType;
-                if (cardType.contains(".")) {
-                    Timber.d("StoryPathLibrary JSON contains fully qualitfied card type: " + cardType);
-                    fqCardType = cardType;
-                } else {
-                    fqCardType = class_package + "." + cardType;
-                }
+                String fqCardType = cardType.contains(".") ? cardType : class_package + "." + cardType;
                 try {
-                    Class cardClass = Class.forName(fqCardType);
+                    Class<? extends Card> cardClass = CardTypeAdapterFactory.getCardClass(class_package, cardType);
                     Card card = (Card) (gson.fromJson(arrObj, cardClass));
                     spl.addCard(card);
                 } catch (ClassNotFoundException e) {
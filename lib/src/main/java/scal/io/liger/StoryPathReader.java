@@ -0,0 +1,412 @@
+package scal.io.liger;
+
+import timber.log.Timber;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import scal.io.liger.model.AudioClip;
+import scal.io.liger.model.Card;
+import scal.io.liger.model.Dependency;
+import scal.io.liger.model.MediaFile;
+import scal.io.liger.model.PublishProfile;
+import scal.io.liger.model.StoryPath;
+import scal.io.liger.model.StoryPathLibrary;
+
+/**
+ * Streaming counterpart of {@link StoryPathDeserializer} and {@link StoryPathLibraryDeserializer},
+ * producing the same models.  The document is read with a {@link JsonReader} straight from the
+ * file or zip stream, so neither the whole file nor a tree of the whole document is held in
+ * memory.  Each card is still read into a small tree of its own, since its "type", which decides
+ * the model class, may come after its other fields.
+ *
+ * USAGE:
+ *
+ * StoryPathLibrary spl = StoryPathReader.readStoryPathLibrary(jsonStream);
+ * StoryPath sp = StoryPathReader.readStoryPath(jsonStream);
+ * StoryPath sp = StoryPathReader.readStoryPath(jsonStream, templateLoader); // instances, see InstanceOverrides
+ * StoryPath sp = StoryPathReader.readCompiledStoryPath(spbinStream);
+ */
+public class StoryPathReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson gson = GsonHelper.getModelGson();
+    private final TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+    private final StoryPath spm;
+    private final StoryPathLibrary spl; // null when reading a plain story path
+    private final InstanceOverrides.TemplateLoader templateLoader;
+
+    // cards that came before "classPackage", resolved at the end in document order
+    private final ArrayList<JsonObject> pendingCards = new ArrayList<JsonObject>();
+    // cards of a compact instance, resolved at the end once its template is known
+    private JsonArray cardOverrides = null;
+    private boolean errorFlag = false;
+
+    private StoryPathReader(@NonNull StoryPath spm, @Nullable StoryPathLibrary spl) {
+        this(spm, spl, null);
+    }
+
+    private StoryPathReader(@NonNull StoryPath spm, @Nullable StoryPathLibrary spl, @Nullable InstanceOverrides.TemplateLoader templateLoader) {
+        this.spm = spm;
+        this.spl = spl;
+        this.templateLoader = templateLoader;
+    }
+
+    /**
+     * Reads a story path.  The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read or isn't well-formed JSON
+     * @throws JsonParseException if the story path doesn't match the model, as with {@link StoryPathDeserializer}
+     */
+    @NonNull
+    public static StoryPath readStoryPath(@NonNull InputStream jsonStream) throws IOException {
+        return readStoryPath(jsonStream, null);
+    }
+
+    /**
+     * Reads a story path instance, which may be stored as overrides of its template, see
+     * {@link InstanceOverrides}.  The stream is not closed.
+     *
+     * @param templateLoader loads the template of a compact instance; if there is none, or the
+     *                       template can't be loaded, only the instance's own cards are read
+     * @throws IOException if the stream can't be read or isn't well-formed JSON
+     * @throws JsonParseException if the story path doesn't match the model
+     */
+    @NonNull
+    public static StoryPath readStoryPath(@NonNull InputStream jsonStream, @Nullable InstanceOverrides.TemplateLoader templateLoader) throws IOException {
+        StoryPath spm = new StoryPath();
+        new StoryPathReader(spm, null, templateLoader).read(createJsonReader(jsonStream));
+        return spm;
+    }
+
+    /**
+     * Reads a story path library.  The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read or isn't well-formed JSON
+     * @throws JsonParseException if the library doesn't match the model, as with {@link StoryPathLibraryDeserializer}
+     */
+    @NonNull
+    public static StoryPathLibrary readStoryPathLibrary(@NonNull InputStream jsonStream) throws IOException {
+        StoryPathLibrary spl = new StoryPathLibrary();
+        new StoryPathReader(spl, spl).read(createJsonReader(jsonStream));
+        return spl;
+    }
+
+    /**
+     * Reads a story path compiled by {@link StoryPathCompiler}.  The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read or isn't a compiled document
+     * @throws JsonParseException if the story path doesn't match the model
+     */
+    @NonNull
+    public static StoryPath readCompiledStoryPath(@NonNull InputStream compiledStream) throws IOException {
+        StoryPath spm = new StoryPath();
+        new StoryPathReader(spm, null).read(new BinaryJsonReader(compiledStream));
+        return spm;
+    }
+
+    /**
+     * Reads a story path library compiled by {@link StoryPathCompiler}.  The stream is not closed.
+     *
+     * @throws IOException if the stream can't be read or isn't a compiled document
+     * @throws JsonParseException if the library doesn't match the model
+     */
+    @NonNull
+    public static StoryPathLibrary readCompiledStoryPathLibrary(@NonNull InputStream compiledStream) throws IOException {
+        StoryPathLibrary spl = new StoryPathLibrary();
+        new StoryPathReader(spl, spl).read(new BinaryJsonReader(compiledStream));
+        return spl;
+    }
+
+    private static JsonReader createJsonReader(InputStream jsonStream) {
+        JsonReader in = new JsonReader(new InputStreamReader(jsonStream, UTF_8));
+        // as lenient as Gson.fromJson, which the deserializers are used through
+        in.setLenient(true);
+        return in;
+    }
+
+    private void read(JsonReader in) throws IOException {
+        try {
+            readObject(in);
+        } catch (IllegalStateException ise) {
+            // a value of the wrong type, reported the way Gson.fromJson reports it
+            throw new JsonSyntaxException(ise);
+        }
+
+        if (spm.getId() == null || spm.getTitle() == null || spm.getClassPackage() == null) {
+            throw new JsonParseException("story path is missing its id, title or classPackage");
+        }
+
+        for (JsonObject cardObj : pendingCards) {
+            addCard(cardObj);
+        }
+
+        if (cardOverrides != null) {
+            StoryPath template = InstanceOverrides.loadTemplate(templateLoader, spm);
+            for (JsonElement cardObj : InstanceOverrides.expand(cardOverrides, template)) {
+                addCard(cardObj.getAsJsonObject());
+            }
+        }
+
+        // don't want to return incomplete models
+        if (errorFlag) {
+            throw new JsonParseException("encountered cards with no corresponding model");
+        }
+    }
+
+    private void readObject(JsonReader in) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (!readField(in, name) && (spl == null || !readLibraryField(in, name))) {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    /*
+     * Fields common to story paths and libraries, returns false if name isn't one of them.
+     */
+    private boolean readField(JsonReader in, String name) throws IOException {
+        if ("id".equals(name)) {
+            spm.setId(in.nextString());
+        } else if ("title".equals(name)) {
+            spm.setTitle(in.nextString());
+        } else if ("classPackage".equals(name)) {
+            spm.setClassPackage(in.nextString());
+        } else if ("fileLocation".equals(name)) {
+            spm.setFileLocation(in.nextString());
+        } else if ("savedFileName".equals(name)) {
+            spm.setSavedFileName(in.nextString());
+        } else if ("storyPathLibraryFile".equals(name) && spl == null) {
+            spm.setStoryPathLibraryFile(in.nextString());
+        } else if ("language".equals(name)) {
+            spm.setLanguage(in.nextString());
+        } else if ("version".equals(name)) {
+            spm.setVersion(in.nextInt());
+        } else if ("templatePath".equals(name)) {
+            spm.setTemplatePath(in.nextString());
+        } else if ("dependencies".equals(name)) {
+            in.beginArray();
+            for (int i = 0; in.hasNext(); i++) {
+                JsonElement arrEle = elementAdapter.read(in);
+                try {
+                    spm.addDependency(gson.fromJson(arrEle.getAsJsonObject(), Dependency.class));
+                } catch (IllegalStateException ise) {
+                    Timber.e("ILLEGAL STATE WHILE PROCESSING \"dependencies\" (#" + i + ") -> " + ise.getMessage());
+                    errorFlag = true;
+                } catch (JsonSyntaxException jse) {
+                    Timber.e("JSON SYNTAX ERROR WHILE PROCESSING \"dependencies\" (#" + i + ") -> " + jse.getMessage());
+                    errorFlag = true;
+                }
+            }
+            in.endArray();
+        } else if ("cards".equals(name)) {
+            in.beginArray();
+            while (in.hasNext()) {
+                // compiled cards come with their class already resolved, so they can be read
+                // straight into their model without a tree
+                String fqCardType = in instanceof BinaryJsonReader ? ((BinaryJsonReader) in).peekCardClassName() : null;
+                if (fqCardType != null && pendingCards.isEmpty()) {
+                    readCard(in, fqCardType);
+                    continue;
+                }
+                JsonObject cardObj = elementAdapter.read(in).getAsJsonObject();
+                if (spm.getClassPackage() == null || !pendingCards.isEmpty()) {
+                    pendingCards.add(cardObj);
+                } else {
+                    addCard(cardObj);
+                }
+            }
+            in.endArray();
+        } else if (InstanceOverrides.CARD_OVERRIDES.equals(name)) {
+            cardOverrides = elementAdapter.read(in).getAsJsonArray();
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Fields only libraries have, returns false if name isn't one of them.
+     */
+    private boolean readLibraryField(JsonReader in, String name) throws IOException {
+        if ("currentStoryPathFile".equals(name)) {
+            spl.setCurrentStoryPathFile(in.nextString());
+        } else if ("publishProfile".equals(name)) {
+            spl.setPublishProfile(readPublishProfile(in));
+        } else if ("metaTitle".equals(name)) {
+            spl.setMetaTitle(in.nextString());
+        } else if ("metaDescription".equals(name)) {
+            spl.setMetaDescription(in.nextString());
+        } else if ("metaThumbnail".equals(name)) {
+            spl.setMetaThumbnail(in.nextString());
+        } else if ("metaSection".equals(name)) {
+            spl.setMetaSection(in.nextString());
+        } else if ("metaLocation".equals(name)) {
+            spl.setMetaLocation(in.nextString());
+        } else if ("storyPathTemplateFiles".equals(name)) {
+            JsonElement tempElement = elementAdapter.read(in);
+            try {
+                HashMap<String, String> storyPathTemplateFiles = gson.fromJson(tempElement.getAsJsonObject(), new TypeToken<HashMap<String, String>>() {}.getType());
+                spl.setStoryPathTemplateFiles(storyPathTemplateFiles);
+            } catch (IllegalStateException ise) {
+                Timber.e("ILLEGAL STATE WHILE PROCESSING \"storyPathTemplateFiles\" -> " + ise.getMessage());
+                errorFlag = true;
+            } catch (JsonSyntaxException jse) {
+                Timber.e("JSON SYNTAX ERROR WHILE PROCESSING \"storyPathTemplateFiles\" -> " + jse.getMessage());
+                errorFlag = true;
+            }
+        } else if ("mediaFiles".equals(name)) {
+            JsonElement tempElement = elementAdapter.read(in);
+            try {
+                HashMap<String, MediaFile> mediaFiles = gson.fromJson(tempElement.getAsJsonObject(), new TypeToken<HashMap<String, MediaFile>>() {}.getType());
+                spl.setMediaFiles(mediaFiles);
+            } catch (IllegalStateException ise) {
+                Timber.e("ILLEGAL STATE WHILE PROCESSING \"mediaFiles\" -> " + ise.getMessage());
+                errorFlag = true;
+            } catch (JsonSyntaxException jse) {
+                Timber.e("JSON SYNTAX ERROR WHILE PROCESSING \"mediaFiles\" -> " + jse.getMessage());
+                errorFlag = true;
+            }
+        } else if ("audioClips".equals(name)) {
+            ArrayList<AudioClip> audioClips = new ArrayList<AudioClip>();
+            in.beginArray();
+            for (int i = 0; in.hasNext(); i++) {
+                JsonElement arrEle = elementAdapter.read(in);
+                try {
+                    audioClips.add(gson.fromJson(arrEle, AudioClip.class));
+                } catch (IllegalStateException ise) {
+                    Timber.e("ILLEGAL STATE WHILE PROCESSING \"audioClips\" (#" + i + ") -> " + ise.getMessage());
+                    errorFlag = true;
+                } catch (JsonSyntaxException jse) {
+                    Timber.e("JSON SYNTAX ERROR WHILE PROCESSING \"audioClips\" (#" + i + ") -> " + jse.getMessage());
+                    errorFlag = true;
+                }
+            }
+            in.endArray();
+            spl.setAudioClips(audioClips);
+        } else if ("metaTags".equals(name)) {
+            for (String metaTag : readStrings(in)) {
+                spl.addMetaTag(metaTag);
+            }
+        } else if ("storyPathInstanceFiles".equals(name)) {
+            for (String storyPathInstanceFile : readStrings(in)) {
+                spl.addStoryPathInstanceFile(storyPathInstanceFile);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static PublishProfile readPublishProfile(JsonReader in) throws IOException {
+        PublishProfile publishProfile = new PublishProfile();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if ("title".equals(name)) {
+                publishProfile.setTitle(in.nextString());
+            } else if ("titlePrefix".equals(name)) {
+                publishProfile.setTitlePrefix(in.nextString());
+            } else if ("titlePostfix".equals(name)) {
+                publishProfile.setTitlePostfix(in.nextString());
+            } else if ("description".equals(name)) {
+                publishProfile.setDescription(in.nextString());
+            } else if ("descriptionPrefix".equals(name)) {
+                publishProfile.setDescriptionPrefix(in.nextString());
+            } else if ("descriptionPostfix".equals(name)) {
+                publishProfile.setDescriptionPostfix(in.nextString());
+            } else if ("tags".equals(name)) {
+                publishProfile.setTags(readStrings(in));
+            } else if ("uploadSiteKeys".equals(name)) {
+                publishProfile.setUploadSiteKeys(readStrings(in));
+            } else if ("publishSiteKeys".equals(name)) {
+                publishProfile.setPublishSiteKeys(readStrings(in));
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return publishProfile;
+    }
+
+    private static ArrayList<String> readStrings(JsonReader in) throws IOException {
+        ArrayList<String> strings = new ArrayList<String>();
+        in.beginArray();
+        while (in.hasNext()) {
+            strings.add(in.nextString());
+        }
+        in.endArray();
+        return strings;
+    }
+
+    private void readCard(JsonReader in, String fqCardType) throws IOException {
+        Class<? extends Card> cardClass;
+        try {
+            cardClass = CardTypeAdapterFactory.getCardClass(spm.getClassPackage(), fqCardType);
+        } catch (ClassNotFoundException e) {
+            Timber.e("MODEL CLASS NOT FOUND FOR CARD TYPE: " + fqCardType);
+            errorFlag = true;
+            in.skipValue();
+            return;
+        }
+        try {
+            spm.addCard(gson.fromJson(in, cardClass));
+        } catch (JsonSyntaxException jse) {
+            // the reader is left part way through the card, so unlike addCard() this can't
+            // carry on with the next one
+            Timber.e("JSON SYNTAX ERROR WHILE PROCESSING CARD TYPE: " + fqCardType + " -> " + jse.getMessage());
+            throw jse;
+        }
+    }
+
+    private void addCard(JsonObject cardObj) {
+        JsonElement type = cardObj.get("type");
+        if (type == null || !type.isJsonPrimitive()) {
+            JsonElement id = cardObj.get("id");
+            throw new JsonParseException("card " + ((id != null && id.isJsonPrimitive()) ? id.getAsString() : "without an id")
+                    + " of story path " + spm.getId() + " has no type");
+        }
+        String classPackage = spm.getClassPackage();
+        String cardType = type.getAsString();
+        String fqCardType = cardType.contains(".") ? cardType : classPackage + "." + cardType;
+        try {
+            Class<? extends Card> cardClass = CardTypeAdapterFactory.getCardClass(classPackage, cardType);
+            spm.addCard(gson.fromJson(cardObj, cardClass));
+        } catch (ClassNotFoundException e) {
+            Timber.e("MODEL CLASS NOT FOUND FOR CARD TYPE: " + fqCardType);
+            errorFlag = true;
+        } catch (IllegalStateException ise) {
+            Timber.e("ILLEGAL STATE WHILE PROCESSING CARD TYPE: " + fqCardType + " -> " + ise.getMessage());
+            errorFlag = true;
+        } catch (JsonSyntaxException jse) {
+            Timber.e("JSON SYNTAX ERROR WHILE PROCESSING CARD TYPE: " + fqCardType + " -> " + jse.getMessage());
+            errorFlag = true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package scal.io.liger;
+
+import timber.log.Timber;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import scal.io.liger.model.StoryPath;
+
+/**
+ * Story path templates as parsed from the expansion files, so that starting another story from a
+ * recently used template reads nothing from the archive and parses no JSON.
+ *
+ * Cached templates are never handed out.  Callers get a copy from {@link #newInstance(StoryPath)},
+ * which they are free to localize, wire up and modify, while the cached template stays as it was
+ * read.  Entries are keyed by expansion, path and language and are dropped by
+ * {@link ZipHelper#clearCache()} along with the opened archives.
+ */
+public class StoryPathTemplateCache {
+
+    // templates in use at once are few, a library typically refers to a handful
+    private static final int MAX_TEMPLATES = 16;
+
+    private static final LruCache<String, StoryPath> templates = new LruCache<String, StoryPath>(MAX_TEMPLATES);
+
+    private static String getKey(@NonNull String path, @Nullable String language) {
+        return ZipHelper.getExpansionIdForPath(path) + ":" + path + ":" + language;
+    }
+
+    /**
+     * @return the template parsed from the given path and language, or null if it isn't cached.
+     * the result must not be modified, see {@link #newInstance(StoryPath)}
+     */
+    @Nullable
+    public static StoryPath get(@NonNull String path, @Nullable String language) {
+        StoryPath template = templates.get(getKey(path, language));
+        if (template != null) {
+            Timber.d("TEMPLATE CACHE HIT FOR " + path + " (" + language + ")");
+        }
+        return template;
+    }
+
+    /**
+     * caches a template as parsed, before it has been localized or attached to a library.  the
+     * caller must not modify it afterwards, use a copy from {@link #newInstance(StoryPath)} instead
+     */
+    public static void put(@NonNull String path, @Nullable String language, @NonNull StoryPath template) {
+        templates.put(getKey(path, language), template);
+    }
+
+    /**
+     * @return a mutable deep copy of a template.  the copy is bound from an in-memory tree of the
+     * template's @Expose fields, the same fields that are saved and restored for instances, so no
+     * text is produced or parsed
+     */
+    @NonNull
+    public static StoryPath newInstance(@NonNull StoryPath template) {
+        JsonElement tree = GsonHelper.getModelGson().toJsonTree(template, StoryPath.class);
+        Gson gson = GsonHelper.getStoryPathGson();
+        return gson.fromJson(tree, StoryPath.class);
+    }
+
+    public static void clear() {
+        templates.evictAll();
+    }
+}
@@ -651,19 +651,12 @@ public class StorymakerIndexManager {
                 newItem.setInstanceFilePath(f.getAbsolutePath());
                 newItem.setStoryCreationDate(date.getTime());
 
-                String jsonString = JsonHelper.loadJSON(f.getPath(), context, "en"); // FIXME don't hardcode "en"
-
-                // if no string was loaded, cannot continue
-                if (jsonString == null) {
-                    Timber.e("json could not be loaded from " + f.getPath());
-                    // handle the same way as null spl case below
-                    return indexList;
-                }
-
                 ArrayList<String> referencedFiles = new ArrayList<String>(); // should not need to insert dependencies to check metadata
-                StoryPathLibrary spl = JsonHelper.deserializeStoryPathLibrary(jsonString, f.getAbsolutePath(), referencedFiles, context, language);
+                StoryPathLibrary spl = JsonHelper.loadStoryPathLibrary(f.getAbsolutePath(), referencedFiles, context, language);
 
+                // if nothing was loaded, cannot continue
                 if (spl == null) {
+                    Timber.e("library could not be loaded from " + f.getPath());
                     return indexList;
                 }
 
@@ -0,0 +1,79 @@
+package scal.io.liger;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+
+/**
+ * Reads HashMaps with String keys, such as a card's values or a library's template files, using
+ * only the public {@link JsonReader} methods.  Gson's own map adapter reaches into JsonReader
+ * internals to read keys, so it can't read from a {@link BinaryJsonReader}.  Maps are written by
+ * Gson's own adapter, so saved files don't change.
+ *
+ * USAGE:
+ *
+ * GsonBuilder gBuild = new GsonBuilder();
+ * gBuild.registerTypeAdapterFactory(new StringMapTypeAdapterFactory());
+ * Gson gson = gBuild.create();
+ */
+public class StringMapTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+        if (typeToken.getRawType() != HashMap.class || !(typeToken.getType() instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] typeArguments = ((ParameterizedType) typeToken.getType()).getActualTypeArguments();
+        if (typeArguments[0] != String.class) {
+            return null;
+        }
+        TypeAdapter<HashMap<String, Object>> delegate = (TypeAdapter<HashMap<String, Object>>) gson.getDelegateAdapter(this, typeToken);
+        TypeAdapter<Object> valueAdapter = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(typeArguments[1]));
+        return (TypeAdapter<T>) new StringMapTypeAdapter(delegate, valueAdapter);
+    }
+
+    private static class StringMapTypeAdapter extends TypeAdapter<HashMap<String, Object>> {
+
+        private final TypeAdapter<HashMap<String, Object>> delegate;
+        private final TypeAdapter<Object> valueAdapter;
+
+        StringMapTypeAdapter(TypeAdapter<HashMap<String, Object>> delegate, TypeAdapter<Object> valueAdapter) {
+            this.delegate = delegate;
+            this.valueAdapter = valueAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, HashMap<String, Object> map) throws IOException {
+            delegate.write(out, map);
+        }
+
+        @Override
+        public HashMap<String, Object> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            } else if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                // written as an array of [key, value] pairs, which only Gson's adapter reads
+                return delegate.read(in);
+            }
+            HashMap<String, Object> map = new HashMap<String, Object>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                map.put(key, valueAdapter.read(in));
+            }
+            in.endObject();
+            return map;
+        }
+    }
+}
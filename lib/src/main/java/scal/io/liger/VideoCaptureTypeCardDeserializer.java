@@ -3,7 +3,6 @@ package scal.io.liger;
 import timber.log.Timber;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonDeserializationContext;
 import com.google.gson.JsonDeserializer;
@@ -37,8 +36,7 @@ public class VideoCaptureTypeCardDeserializer implements JsonDeserializer<VideoC
         vctcm.setId(id);
         vctcm.setTitle(title);
 
-        GsonBuilder gBuild = new GsonBuilder();
-        Gson gson = gBuild.create();
+        Gson gson = GsonHelper.getGson();
 
         JsonElement jEle = jObj.get("body");
         if (jEle != null) {
@@ -4,22 +4,42 @@ import timber.log.Timber;
 
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.os.Environment;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.Pair;
 
-import com.android.vending.expansion.zipfile.APKExpansionSupport;
+import com.android.vending.expansion.zipfile.ByteBufferInputStream;
+import com.android.vending.expansion.zipfile.ExtractedEntryCache;
+import com.android.vending.expansion.zipfile.InflatedEntryCache;
 import com.android.vending.expansion.zipfile.ZipResourceFile;
+import com.android.vending.expansion.zipfile.ZipResourceFileRegistry;
 
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.schedulers.Schedulers;
 
 import scal.io.liger.model.ExpansionIndexItem;
 import scal.io.liger.model.sqlbrite.InstalledIndexItemDao;
@@ -197,7 +217,7 @@ public class ZipHelper {
 
             ArrayList<String> paths = getExpansionPaths(context);
 
-            ZipResourceFile resourceFile = APKExpansionSupport.getResourceZipFile(paths.toArray(new String[paths.size()]));
+            ZipResourceFile resourceFile = ZipResourceFileRegistry.getResourceZipFile(paths.toArray(new String[paths.size()]));
 
             return resourceFile;
         } catch (IOException ioe) {
@@ -208,6 +228,15 @@ public class ZipHelper {
 
     @Nullable
     public static InputStream getFileInputStream(String path, Context context, String language) {
+        return getFileInputStream(path, getExpansionRoutes(context), language);
+    }
+
+    /**
+     * Same as {@link #getFileInputStream(String, Context, String)}, for work that runs on another
+     * thread with routes resolved by the caller.
+     */
+    @Nullable
+    static InputStream getFileInputStream(@NonNull String path, @NonNull ExpansionRoutes routes, @Nullable String language) {
 
         String localizedFilePath = path;
 
@@ -230,14 +259,26 @@ public class ZipHelper {
             Timber.d("getFileInputStream() - TRYING PATH: " + localizedFilePath);
         }
 
-        InputStream fileStream = getFileInputStream(localizedFilePath, context);
+        InputStream fileStream = null;
+
+        // skip localized variants already known to be missing
+        if (isMissingLocalizedPath(language, localizedFilePath)) {
+            Timber.d("getFileInputStream() - LOCALIZED PATH KNOWN TO BE MISSING: " + localizedFilePath);
+        } else {
+            fileStream = getFileInputStream(localizedFilePath, routes);
+        }
 
         // if there is no result with the localized path, retry with default path
         if (fileStream == null) {
             if (localizedFilePath.contains("-")) {
+                // a read that failed for some other reason is retried next time
+                if (!isMissingLocalizedPath(language, localizedFilePath) && isAbsentFromExpansionFiles(localizedFilePath, routes)) {
+                    addMissingLocalizedPath(language, localizedFilePath);
+                }
+
                 localizedFilePath = localizedFilePath.substring(0, localizedFilePath.lastIndexOf("-")) + localizedFilePath.substring(localizedFilePath.lastIndexOf("."));
                 Timber.d("getFileInputStream() - NO RESULT WITH LOCALIZED PATH, TRYING DEFAULT PATH: " + localizedFilePath);
-                fileStream = ZipHelper.getFileInputStream(localizedFilePath, context);
+                fileStream = getFileInputStream(localizedFilePath, routes);
             }
         } else {
             return fileStream;
@@ -252,6 +293,243 @@ public class ZipHelper {
         return null;
     }
 
+    /**
+     * @return a stream of the compiled form of a .json file, see {@link StoryPathCompiler}, or null
+     * if the expansion doesn't include one for the localized file getFileInputStream() would read.
+     * A compiled file is only read if it comes from the same expansion file as that .json and was
+     * compiled from it, as recorded in its header, so a stale or mismatched one falls back to the
+     * .json rather than being read in its place.
+     */
+    @Nullable
+    public static InputStream getCompiledFileInputStream(@NonNull String path, @NonNull Context context, @Nullable String language) {
+        return getCompiledFileInputStream(path, getExpansionRoutes(context), language);
+    }
+
+    /**
+     * Same as {@link #getCompiledFileInputStream(String, Context, String)}, for work that runs on
+     * another thread with routes resolved by the caller.
+     */
+    @Nullable
+    static InputStream getCompiledFileInputStream(@NonNull String path, @NonNull ExpansionRoutes routes, @Nullable String language) {
+
+        String localizedFilePath = path;
+
+        // localized as in getFileInputStream(), but without falling back to the default path, so
+        // a compiled default is never read in place of a localized json file
+        if ((language != null) && !"en".equals(language) && path.endsWith(StoryPathCompiler.JSON_EXTENSION)) {
+            if (path.lastIndexOf("-" + language + StoryPathCompiler.JSON_EXTENSION) < 0) {
+                localizedFilePath = path.substring(0, path.lastIndexOf(".")) + "-" + language + StoryPathCompiler.JSON_EXTENSION;
+            }
+        }
+
+        String compiledFilePath = StoryPathCompiler.getCompiledPath(localizedFilePath);
+        if (compiledFilePath == null) {
+            return null;
+        }
+
+        InputStream compiledStream = null;
+        try {
+            ZipResourceFile resourceFile = routes.getResourceFile(getExpansionIdForPath(compiledFilePath));
+            if (resourceFile == null) {
+                return null;
+            }
+
+            ZipResourceFile.ZipEntryRO jsonEntry = resourceFile.getEntry(localizedFilePath);
+            if (!isCompiledEntryUsable(jsonEntry, resourceFile.getEntry(compiledFilePath))) {
+                return null;
+            }
+
+            compiledStream = getFileInputStreamFromResourceFile(resourceFile, compiledFilePath);
+            if (compiledStream == null) {
+                return null;
+            }
+
+            byte[] header = new byte[BinaryJsonReader.HEADER_SIZE];
+            IOUtils.readFully(compiledStream, header);
+            if (BinaryJsonReader.getSourceCrc32(header) != jsonEntry.mCRC32) {
+                Timber.w("getCompiledFileInputStream() - " + compiledFilePath + " WAS NOT COMPILED FROM " + localizedFilePath + ", READING THE JSON");
+                compiledStream.close();
+                return null;
+            }
+
+            // hand the header back, the reader checks it again
+            return new SequenceInputStream(new ByteArrayInputStream(header), compiledStream);
+        } catch (IOException ioe) {
+            Timber.e("Could not read compiled file " + compiledFilePath + ", " + ioe.getMessage());
+            IOUtils.closeQuietly(compiledStream);
+            return null;
+        }
+    }
+
+    /*
+     * A compiled entry is only used in place of the json entry if both come from the same
+     * expansion file, so a patch that replaces the json without replacing the compiled file (or
+     * the other way around) never has a compiled file read in place of the json that would win
+     */
+    private static boolean isCompiledEntryUsable(@Nullable ZipResourceFile.ZipEntryRO jsonEntry, @Nullable ZipResourceFile.ZipEntryRO compiledEntry) {
+        return (jsonEntry != null) && (compiledEntry != null) && jsonEntry.getZipFile().equals(compiledEntry.getZipFile());
+    }
+
+    // language -> localized paths that none of the expansion files has, cleared with the cache
+    private static HashMap<String, HashSet<String>> missingLocalizedPaths = new HashMap<String, HashSet<String>>();
+
+    private static synchronized boolean isMissingLocalizedPath(@Nullable String language, @NonNull String localizedFilePath) {
+        HashSet<String> missingPaths = missingLocalizedPaths.get(language);
+        return missingPaths != null && missingPaths.contains(localizedFilePath);
+    }
+
+    /*
+     * true only if the expansion files could all be opened and none of them has the path
+     */
+    private static boolean isAbsentFromExpansionFiles(@NonNull String path, @NonNull ExpansionRoutes routes) {
+        try {
+            ZipResourceFile resourceFile = routes.getResourceFile(null);
+            return (resourceFile != null) && (resourceFile.getEntry(path) == null);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private static synchronized void addMissingLocalizedPath(@Nullable String language, @NonNull String localizedFilePath) {
+        HashSet<String> missingPaths = missingLocalizedPaths.get(language);
+        if (missingPaths == null) {
+            missingPaths = new HashSet<String>();
+            missingLocalizedPaths.put(language, missingPaths);
+        }
+        missingPaths.add(localizedFilePath);
+    }
+
+    // ASYNC
+
+    /**
+     * Asynchronous version of {@link #getFileInputStream(String, Context, String)}. The lookup
+     * runs on the given scheduler when subscribed; the stream is emitted once, or the observable
+     * fails with a {@link FileNotFoundException} if the file isn't in any expansion file. A stream
+     * opened after the subscriber has unsubscribed is closed rather than emitted.
+     */
+    @NonNull
+    public static Observable<InputStream> observeFileInputStream(@NonNull final String path,
+                                                                 @NonNull final Context context,
+                                                                 @Nullable final String language,
+                                                                 @NonNull Scheduler scheduler) {
+        // resolved here, the context may not have db access on the scheduler's thread
+        final ExpansionRoutes routes = getExpansionRoutes(context);
+        return Observable.create(new Observable.OnSubscribe<InputStream>() {
+            @Override
+            public void call(Subscriber<? super InputStream> subscriber) {
+                InputStream fileStream = getFileInputStream(path, routes, language);
+
+                if (subscriber.isUnsubscribed()) {
+                    IOUtils.closeQuietly(fileStream);
+                } else if (fileStream == null) {
+                    subscriber.onError(new FileNotFoundException(path));
+                } else {
+                    subscriber.onNext(fileStream);
+                    subscriber.onCompleted();
+                }
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @NonNull
+    public static Observable<InputStream> observeFileInputStream(@NonNull String path, @NonNull Context context, @Nullable String language) {
+        return observeFileInputStream(path, context, language, Schedulers.io());
+    }
+
+    /**
+     * Reads a file from the expansion files on the given scheduler and emits its contents, or
+     * fails with a {@link FileNotFoundException}.  stored entries are emitted as a read-only view
+     * of the mapped expansion file, without a copy.
+     */
+    @NonNull
+    public static Observable<ByteBuffer> observeFileBytes(@NonNull final String path,
+                                                          @NonNull final Context context,
+                                                          @Nullable final String language,
+                                                          @NonNull Scheduler scheduler) {
+        final ExpansionRoutes routes = getExpansionRoutes(context);
+        return Observable.create(new Observable.OnSubscribe<ByteBuffer>() {
+            @Override
+            public void call(Subscriber<? super ByteBuffer> subscriber) {
+                try {
+                    InputStream fileStream = getFileInputStream(path, routes, language);
+
+                    if (subscriber.isUnsubscribed()) {
+                        IOUtils.closeQuietly(fileStream);
+                    } else if (fileStream == null) {
+                        subscriber.onError(new FileNotFoundException(path));
+                    } else {
+                        subscriber.onNext(readBytes(fileStream));
+                        subscriber.onCompleted();
+                    }
+                } catch (IOException ioe) {
+                    subscriber.onError(ioe);
+                }
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @NonNull
+    public static Observable<ByteBuffer> observeFileBytes(@NonNull String path, @NonNull Context context, @Nullable String language) {
+        return observeFileBytes(path, context, language, Schedulers.io());
+    }
+
+    /**
+     * Batched version of {@link #observeFileBytes(String, Context, String, Scheduler)}. Files are
+     * read in order on the given scheduler and emitted as (path, contents) pairs; files that can't
+     * be found are logged and skipped.  unsubscribing stops the batch before the next file is read.
+     */
+    @NonNull
+    public static Observable<Pair<String, ByteBuffer>> observeFileBytes(@NonNull final List<String> paths,
+                                                                        @NonNull final Context context,
+                                                                        @Nullable final String language,
+                                                                        @NonNull Scheduler scheduler) {
+        final ExpansionRoutes routes = getExpansionRoutes(context);
+        return Observable.create(new Observable.OnSubscribe<Pair<String, ByteBuffer>>() {
+            @Override
+            public void call(Subscriber<? super Pair<String, ByteBuffer>> subscriber) {
+                try {
+                    for (String path : paths) {
+                        if (subscriber.isUnsubscribed()) {
+                            return;
+                        }
+
+                        InputStream fileStream = getFileInputStream(path, routes, language);
+
+                        if (fileStream == null) {
+                            Timber.e("observeFileBytes() - NO RESULT FOR " + path + ", SKIPPING");
+                        } else {
+                            subscriber.onNext(new Pair<String, ByteBuffer>(path, readBytes(fileStream)));
+                        }
+                    }
+                    subscriber.onCompleted();
+                } catch (IOException ioe) {
+                    subscriber.onError(ioe);
+                }
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    @NonNull
+    public static Observable<Pair<String, ByteBuffer>> observeFileBytes(@NonNull List<String> paths, @NonNull Context context, @Nullable String language) {
+        return observeFileBytes(paths, context, language, Schedulers.io());
+    }
+
+    /**
+     * @return the remaining contents of the stream, which is closed.  streams over mapped
+     * expansion file entries are returned as is, without a copy.
+     */
+    @NonNull
+    private static ByteBuffer readBytes(@NonNull InputStream fileStream) throws IOException {
+        try {
+            if (fileStream instanceof ByteBufferInputStream) {
+                return ((ByteBufferInputStream) fileStream).getBuffer().asReadOnlyBuffer();
+            }
+            return ByteBuffer.wrap(IOUtils.toByteArray(fileStream)).asReadOnlyBuffer();
+        } finally {
+            IOUtils.closeQuietly(fileStream);
+        }
+    }
+
     @Nullable
     public static InputStream getFileInputStreamForExpansionAndPath(@NonNull ExpansionIndexItem expansion,
                                                                               @NonNull String path,
@@ -264,7 +542,7 @@ public class ZipHelper {
     public static InputStream getThumbnailInputStreamForItem(@NonNull ExpansionIndexItem item, @NonNull Context context) {
         ZipResourceFile resourceFile = null;
         try {
-            resourceFile = APKExpansionSupport.getResourceZipFile(new String[]{IndexManager.buildFileAbsolutePath(item, Constants.MAIN, context)});
+            resourceFile = ZipResourceFileRegistry.getResourceZipFile(new String[]{IndexManager.buildFileAbsolutePath(item, Constants.MAIN, context)});
             return resourceFile.getInputStream(item.getThumbnailPath());
 
         } catch (IOException e) {
@@ -273,8 +551,67 @@ public class ZipHelper {
         return null;
     }
 
-    private static ArrayList<String> expansionPaths;
+    private static ExpansionRoutes expansionRoutes;
     private static boolean mReloadExpansionPaths = true;
+    // false if expansionRoutes was built without db access, so it lacks the installed content packs
+    private static boolean mExpansionPathsHaveDao = false;
+
+    private static final String ALL_EXPANSIONS = "";
+
+    /**
+     * The expansion files as of one build of the path list, and which of them each content pack
+     * routes to.  It doesn't change once built, so work handed to a background thread takes one
+     * of these, resolved where the caller's context is at hand, rather than a Context it would
+     * have to resolve the paths with itself, possibly without db access.
+     */
+    static final class ExpansionRoutes {
+
+        // absolute paths of all available expansion files
+        private final ArrayList<String> paths;
+        // expansion id -> paths of that content pack's main and patch files
+        private final HashMap<String, ArrayList<String>> routes;
+        // expansion id (or ALL_EXPANSIONS) -> opened resource file for its paths
+        private final HashMap<String, ZipResourceFile> resourceFiles = new HashMap<String, ZipResourceFile>();
+
+        ExpansionRoutes(@NonNull ArrayList<String> paths, @NonNull HashMap<String, ArrayList<String>> routes) {
+            this.paths = paths;
+            this.routes = routes;
+        }
+
+        @NonNull
+        ArrayList<String> getPaths() {
+            return new ArrayList<String>(paths);
+        }
+
+        /**
+         * @return the opened resource file for the content pack with the given expansion id, or for
+         * all expansion files if the id isn't routed to an installed pack.  handles are kept with
+         * the routes, so repeated lookups don't touch the file system.
+         */
+        @Nullable
+        synchronized ZipResourceFile getResourceFile(@Nullable String expansionId) throws IOException {
+
+            ArrayList<String> targetExpansionPaths = expansionId == null ? null : routes.get(expansionId);
+            String routeKey = expansionId;
+
+            // this shouldn't happen...
+            if (targetExpansionPaths == null) {
+                Timber.d("NO ROUTE FOR " + expansionId + ", USING ALL PATHS");
+                targetExpansionPaths = paths;
+                routeKey = ALL_EXPANSIONS;
+            }
+
+            ZipResourceFile resourceFile = resourceFiles.get(routeKey);
+            if (resourceFile == null) {
+                resourceFile = ZipResourceFileRegistry.getResourceZipFile(targetExpansionPaths.toArray(new String[targetExpansionPaths.size()]));
+                if (resourceFile != null) {
+                    resourceFiles.put(routeKey, resourceFile);
+                }
+            }
+
+            return resourceFile;
+        }
+    }
 
     /**
      * @return an absolute path to an expansion file with the given expansionId, or null if no
@@ -297,18 +634,40 @@ public class ZipHelper {
 
     public static void clearCache() {
         mReloadExpansionPaths = true;
+
+        // installed content may now include localized variants that were missing
+        synchronized (ZipHelper.class) {
+            missingLocalizedPaths.clear();
+        }
+
+        // installed files may have changed, drop opened archives
+        ZipResourceFileRegistry.clear();
+        InflatedEntryCache.clear();
+        StoryPathTemplateCache.clear();
     }
 
     /**
      * @return a list of absolute paths to all available expansion files.
      */
     @NonNull
-    private static synchronized ArrayList<String> getExpansionPaths(@NonNull Context context) {
-        if (mReloadExpansionPaths) {
+    private static ArrayList<String> getExpansionPaths(@NonNull Context context) {
+        return getExpansionRoutes(context).getPaths();
+    }
+
+    /**
+     * @return the available expansion files and the routes to them, built the first time and
+     * kept until the next clearCache().  resolve these on the calling thread before handing work
+     * to a background thread, the context there may not have db access.
+     */
+    @NonNull
+    static synchronized ExpansionRoutes getExpansionRoutes(@NonNull Context context) {
+        // a list built without db access is only kept until one can be built with it
+        if (mReloadExpansionPaths || (!mExpansionPathsHaveDao && (context instanceof MainActivity))) {
 
             mReloadExpansionPaths = false;
 
-            expansionPaths = new ArrayList<>();
+            ArrayList<String> expansionPaths = new ArrayList<>();
+            HashMap<String, ArrayList<String>> routes = new HashMap<String, ArrayList<String>>();
 
             File mainFile = new File(getExpansionFileFolder(context, Constants.MAIN, Constants.MAIN_VERSION) + getExpansionZipFilename(context, Constants.MAIN, Constants.MAIN_VERSION));
             if (mainFile.exists() && (mainFile.length() > 0)) {
@@ -343,6 +702,7 @@ public class ZipHelper {
             } else {
                 Timber.e("NO DAO IN getExpansionPaths");
             }
+            mExpansionPathsHaveDao = (dao != null);
 
             // add 3rd party stuff
             HashMap<String, scal.io.liger.model.sqlbrite.ExpansionIndexItem> expansionIndex = StorymakerIndexManager.loadInstalledOrderIndex(context, dao);
@@ -369,6 +729,10 @@ public class ZipHelper {
                         Timber.d("EXPANSION FILE " + checkFile.getPath() + " FOUND, ADDING TO ZIP");
                         expansionPaths.add(checkFile.getPath());
 
+                        ArrayList<String> routePaths = new ArrayList<String>();
+                        routePaths.add(checkFile.getPath());
+                        routes.put(item.getExpansionId(), routePaths);
+
                         if ((item.getPatchFileVersion() != null) &&
                                 (item.getExpansionFileVersion() != null) &&
                                 (Integer.parseInt(item.getPatchFileVersion()) > 0) &&
@@ -383,6 +747,7 @@ public class ZipHelper {
                             if (checkFile.exists() && (checkFile.length() > 0)) {
                                 Timber.d("EXPANSION FILE " + checkFile.getPath() + " FOUND, ADDING TO ZIP");
                                 expansionPaths.add(checkFile.getPath());
+                                routePaths.add(checkFile.getPath());
                             } else {
                                 Timber.e(checkFile.getPath() + " IS MISSING OR EMPTY, EXCLUDING FROM ZIP RESOURCE");
                             }
@@ -394,7 +759,20 @@ public class ZipHelper {
             }
         }
 
-        return expansionPaths;
+            expansionRoutes = new ExpansionRoutes(expansionPaths, routes);
+        }
+
+        return expansionRoutes;
+    }
+
+    /**
+     * @return the opened resource file for the content pack with the given expansion id, or for
+     * all expansion files if the id isn't routed to an installed pack, see
+     * {@link ExpansionRoutes#getResourceFile(String)}
+     */
+    @Nullable
+    private static ZipResourceFile getRoutedResourceFile(@Nullable String expansionId, @NonNull Context context) throws IOException {
+        return getExpansionRoutes(context).getResourceFile(expansionId);
     }
 
     /**
@@ -405,7 +783,8 @@ public class ZipHelper {
      * to the ExpansionIndexItem from which they were created, if applicable. The inspection
      * is performed by searching for installed ExpansionIndexItem expansionId values
      * within the given path parameter, and does not involve inspection of the files belonging to
-     * each ExpansionIndexItem.
+     * each ExpansionIndexItem.  Uses the installed index rather than the routing table, which only
+     * holds packs whose files are present.
      *
      */
     @Nullable
@@ -413,18 +792,19 @@ public class ZipHelper {
 
         // need db access to get list of installed content packs
         if (context instanceof MainActivity) {
-            InstalledIndexItemDao dao = ((MainActivity)context).getInstalledIndexItemDao(); // FIXME this isn't a safe cast as context can sometimes not be an activity (getApplicationContext())
-
+            InstalledIndexItemDao dao = ((MainActivity) context).getInstalledIndexItemDao();
             HashMap<String, scal.io.liger.model.sqlbrite.ExpansionIndexItem> expansions = StorymakerIndexManager.loadInstalledIdIndex(context, dao);
 
-            Set<String> expansionIds = expansions.keySet();
-            for(String expansionId : expansionIds) {
-                if (path.contains(expansionId)) {
-
-                    // turning this into an instance of the non sql-brite class to minimize impact
-                    ExpansionIndexItem eii = new ExpansionIndexItem((expansions.get(expansionId)));
+            // expansion ids are usually whole path segments, try those before scanning every id
+            for (String segment : path.split("/")) {
+                if (expansions.containsKey(segment)) {
+                    return new ExpansionIndexItem(expansions.get(segment));
+                }
+            }
 
-                    return eii;
+            for (String expansionId : expansions.keySet()) {
+                if (path.contains(expansionId)) {
+                    return new ExpansionIndexItem(expansions.get(expansionId));
                 }
             }
         } else {
@@ -442,37 +822,162 @@ public class ZipHelper {
     @Deprecated
     @Nullable
     public static InputStream getFileInputStream(@NonNull String path, @NonNull Context context) {
+        return getFileInputStream(path, getExpansionRoutes(context));
+    }
+
+    @Nullable
+    private static InputStream getFileInputStream(@NonNull String path, @NonNull ExpansionRoutes routes) {
+
+        String expansionId = getExpansionIdForPath(path);
+
+        try {
+            // resource file contains main file and patch file
+            ZipResourceFile resourceFile = routes.getResourceFile(expansionId);
+
+            Timber.d(String.format("Searching for %s in expansion %s", path, expansionId));
+
+            return getFileInputStreamFromResourceFile(resourceFile, path);
+        } catch (IOException ioe) {
+            Timber.e("Could not find file " + path + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
+            return null;
+        }
+    }
+
+    /**
+     * @return an offset/length descriptor into the expansion archive for the asset at path, suitable
+     * for MediaPlayer.setDataSource(FileDescriptor, long, long), or null if the asset is missing or
+     * is stored compressed. The caller must close the descriptor once the player has been prepared.
+     */
+    @Nullable
+    public static AssetFileDescriptor getAssetFileDescriptor(@NonNull String path, @NonNull Context context) {
+
+        String expansionId = getExpansionIdForPath(path);
+
+        try {
+            ZipResourceFile resourceFile = getRoutedResourceFile(expansionId, context);
+
+            if (resourceFile == null) {
+                return null;
+            }
+
+            AssetFileDescriptor descriptor = resourceFile.getAssetFileDescriptor(path);
+
+            if (descriptor == null) {
+                Timber.d("No stored entry for " + path + ", it must be extracted before playback");
+            }
+            return descriptor;
+        } catch (IOException ioe) {
+            Timber.e("Could not open resource file for " + path + ", " + ioe.getMessage());
+            return null;
+        }
+    }
+
+    // runs prefetchFilesInBackground(), one pass at a time so passes don't compete for the disk
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "ZipPrefetcher");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Runs {@link #prefetchFiles(Collection, Context, String)} on a background thread, so it can be
+     * started from the UI thread.  the files are still read normally if the prefetch hasn't
+     * reached them yet.  the expansion files are resolved with the given context before the
+     * prefetch is handed off.
+     */
+    public static void prefetchFilesInBackground(@NonNull Collection<String> paths, @NonNull Context context, @Nullable final String language) {
+        final ArrayList<String> pathsToRead = new ArrayList<String>(paths);
+        final ExpansionRoutes routes = getExpansionRoutes(context);
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetchFiles(pathsToRead, routes, language);
+            }
+        });
+    }
+
+    /**
+     * Reads the given files into memory ahead of use, sorted by their position in each expansion
+     * file and coalesced into as few sequential reads as possible, so the individual reads that
+     * follow don't each seek on slow storage.  Only the variant of each path that would actually
+     * be read is prefetched: the compiled form of a .json file if getCompiledFileInputStream()
+     * would read it, otherwise the localized file, or the default one if there is no localized
+     * file.  Paths that aren't in any expansion file are ignored.
+     *
+     * This reads from the expansion files, so don't call it from the UI thread, see
+     * {@link #prefetchFilesInBackground(Collection, Context, String)}.
+     *
+     * @return the number of files read
+     */
+    public static int prefetchFiles(@NonNull Collection<String> paths, @NonNull Context context, @Nullable String language) {
+        return prefetchFiles(paths, getExpansionRoutes(context), language);
+    }
 
-        // resource file contains main file and patch file
-        ArrayList<String> allExpansionPaths = getExpansionPaths(context);
-        ArrayList<String> targetExpansionPaths = new ArrayList<>();
+    private static int prefetchFiles(@NonNull Collection<String> paths, @NonNull ExpansionRoutes routes, @Nullable String language) {
 
-        // try to extract expansion id from target path
-        // assumes format org.storymaker.app/learning_guide/content_metadata-en.json
-        String[] parts = path.split("/");
+        // group by expansion, so each routed resource file gets a single pass
+        HashMap<String, ArrayList<String>> pathsByExpansionId = new HashMap<String, ArrayList<String>>();
+        for (String path : paths) {
+            if (path == null || path.lastIndexOf('.') < 0) {
+                continue;
+            }
+            String expansionId = getExpansionIdForPath(path);
+            ArrayList<String> expansionPaths = pathsByExpansionId.get(expansionId);
+            if (expansionPaths == null) {
+                expansionPaths = new ArrayList<String>();
+                pathsByExpansionId.put(expansionId, expansionPaths);
+            }
+            expansionPaths.add(path);
+        }
 
-        for (String expansionPath : allExpansionPaths) {
-            if (expansionPath.contains(parts[1])) {
-                Timber.d("FOUND MATCH FOR " + parts[1] + " IN PATH " + expansionPath);
-                targetExpansionPaths.add(expansionPath);
+        int count = 0;
+        for (String expansionId : pathsByExpansionId.keySet()) {
+            try {
+                ZipResourceFile resourceFile = routes.getResourceFile(expansionId);
+                if (resourceFile != null) {
+                    ArrayList<String> pathsToRead = new ArrayList<String>();
+                    for (String path : pathsByExpansionId.get(expansionId)) {
+                        pathsToRead.add(getPathToRead(resourceFile, path, language));
+                    }
+                    count += resourceFile.prefetch(pathsToRead);
+                }
+            } catch (IOException ioe) {
+                Timber.e("Could not open resource file to prefetch files of expansion " + expansionId + ", " + ioe.getMessage());
             }
         }
 
-        // this shouldn't happen...
-        if (targetExpansionPaths.size() == 0) {
-            Timber.d("NO MATCHES FOR " + parts[1] + ", USING ALL PATHS");
-            targetExpansionPaths = allExpansionPaths;
+        Timber.d("prefetchFiles() - READ " + count + " FILES AHEAD FOR " + paths.size() + " PATHS");
+        return count;
+    }
+
+    /*
+     * The one variant of a path the reads that follow a prefetch will use, mirroring
+     * getCompiledFileInputStream() and getFileInputStream(path, context, language)
+     */
+    @NonNull
+    private static String getPathToRead(@NonNull ZipResourceFile resourceFile, @NonNull String path, @Nullable String language) {
+        String localizedFilePath = path;
+        if (language != null && !"en".equals(language) && path.lastIndexOf("-" + language + path.substring(path.lastIndexOf("."))) < 0) {
+            localizedFilePath = path.substring(0, path.lastIndexOf(".")) + "-" + language + path.substring(path.lastIndexOf("."));
         }
 
-        StringBuilder paths = new StringBuilder();
-        for (String expansionPath : targetExpansionPaths) {
-            paths.append(expansionPath);
-            paths.append(", ");
+        String compiledFilePath = StoryPathCompiler.getCompiledPath(localizedFilePath);
+        if (compiledFilePath != null && isCompiledEntryUsable(resourceFile.getEntry(localizedFilePath), resourceFile.getEntry(compiledFilePath))) {
+            return compiledFilePath;
         }
-        paths.delete(paths.length()-2, paths.length());
-        Timber.d(String.format("Searching for %s in %s", path, paths));
+        return (resourceFile.getEntry(localizedFilePath) != null) ? localizedFilePath : path;
+    }
 
-        return getFileInputStreamFromFiles(targetExpansionPaths, path, context);
+    // try to extract expansion id from target path
+    // assumes format org.storymaker.app/learning_guide/content_metadata-en.json
+    @Nullable
+    static String getExpansionIdForPath(@NonNull String path) {
+        int idStart = path.indexOf('/') + 1;
+        int idEnd = path.indexOf('/', idStart);
+        return (idStart > 0 && idEnd > idStart) ? path.substring(idStart, idEnd) : null;
     }
 
     @Nullable
@@ -487,75 +992,105 @@ public class ZipHelper {
     @Nullable
     public static InputStream getFileInputStreamFromFiles(ArrayList<String> zipPaths, String filePath, Context context) {
         try {
-            ZipResourceFile resourceFile = APKExpansionSupport.getResourceZipFile(zipPaths.toArray(new String[zipPaths.size()]));
-
-            if (resourceFile == null) {
-                return null;
-            }
-
-            // file path must be relative to the root of the resource file
-            InputStream resourceStream = resourceFile.getInputStream(filePath);
+            ZipResourceFile resourceFile = ZipResourceFileRegistry.getResourceZipFile(zipPaths.toArray(new String[zipPaths.size()]));
 
-            if (resourceStream == null) {
-                Timber.d("Could not find file " + filePath + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
-            } else {
-                Timber.d("Found file " + filePath + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
-            }
-            return resourceStream;
+            return getFileInputStreamFromResourceFile(resourceFile, filePath);
         } catch (IOException ioe) {
             Timber.e("Could not find file " + filePath + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
             return null;
         }
     }
 
-    /**
-     * Copy the expansion asset at path to a temporary file within tempPath. If
-     * a temp file exists for the given arguments it will be deleted and remade.
-     */
-    @Deprecated
     @Nullable
-    public static File getTempFile(String path, String tempPath, Context context) {
+    private static InputStream getFileInputStreamFromResourceFile(@Nullable ZipResourceFile resourceFile, String filePath) throws IOException {
 
-        String extension = path.substring(path.lastIndexOf("."));
+        if (resourceFile == null) {
+            return null;
+        }
 
-        File tempFile = new File(tempPath + File.separator + "TEMP" + extension);
+        // file path must be relative to the root of the resource file
+        InputStream resourceStream = resourceFile.getInputStream(filePath);
 
-        try {
-            if (tempFile.exists()) {
-                tempFile.delete();
-                Timber.d("Deleted temp file " + tempFile.getPath());
+        if (resourceStream == null) {
+            Timber.d("Could not find file " + filePath + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
+        } else {
+            Timber.d("Found file " + filePath + " within resource file (main version " + Constants.MAIN_VERSION + ", patch version " + Constants.PATCH_VERSION + ")");
+        }
+        return resourceStream;
+    }
+
+    public static final long DEFAULT_EXTRACTED_FILE_CACHE_BYTES = 64 * 1024 * 1024;
+    private static final String EXTRACTED_FILE_FOLDER = "extracted";
+
+    private static ExtractedEntryCache extractedFileCache;
+    private static long extractedFileCacheBytes = DEFAULT_EXTRACTED_FILE_CACHE_BYTES;
+
+    /**
+     * Sets the total size of expansion assets kept extracted on disk by {@link #getExtractedFile}.
+     */
+    public static synchronized void setExtractedFileCacheSize(long maxBytes) {
+        extractedFileCacheBytes = maxBytes;
+        if (extractedFileCache != null) {
+            extractedFileCache.setMaxBytes(maxBytes);
+        }
+    }
+
+    @Nullable
+    private static synchronized ExtractedEntryCache getExtractedFileCache(@NonNull Context context) {
+        if (extractedFileCache == null) {
+            File storageDirectory = StorageHelper.getActualStorageDirectory(context);
+            if (storageDirectory == null) {
+                Timber.e("No storage directory available for extracted files");
+                return null;
             }
-            tempFile.createNewFile();
-            Timber.d("Made temp file " + tempFile.getPath());
-        } catch (IOException ioe) {
-            Timber.e("Failed to clean up existing temp file " + tempFile.getPath() + ", " + ioe.getMessage());
-            return null;
+            extractedFileCache = new ExtractedEntryCache(new File(storageDirectory, EXTRACTED_FILE_FOLDER), extractedFileCacheBytes);
         }
+        return extractedFileCache;
+    }
+
+    /**
+     * @return a real file holding the expansion asset at path, for consumers that can't read from
+     * a stream or descriptor. Files are cached by archive, entry name and CRC32, so repeated calls
+     * for an unchanged asset don't touch the archive. The file may later be evicted to stay within
+     * the budget set by {@link #setExtractedFileCacheSize}, so don't persist its path.
+     */
+    @Nullable
+    public static File getExtractedFile(@NonNull String path, @NonNull Context context) {
 
-        InputStream zipInput = getFileInputStream(path, context);
+        ExtractedEntryCache cache = getExtractedFileCache(context);
 
-        if (zipInput == null) {
-            Timber.e("Failed to open input stream for " + path + " in .zip file");
+        if (cache == null) {
             return null;
         }
 
+        String expansionId = getExpansionIdForPath(path);
+
         try {
-            FileOutputStream tempOutput = new FileOutputStream(tempFile);
-            byte[] buf = new byte[1024];
-            int i;
-            while((i = zipInput.read(buf)) > 0) {
-                tempOutput.write(buf, 0, i);
-            }
-            tempOutput.close();
-            zipInput.close();
-            Timber.d("Wrote temp file " + tempFile.getPath());
+            ZipResourceFile resourceFile = getRoutedResourceFile(expansionId, context);
+
+            if (resourceFile == null) {
+                return null;
+            }
+
+            File extractedFile = cache.getFile(resourceFile, path);
+
+            if (extractedFile == null) {
+                Timber.e("Could not find file " + path + " to extract");
+            }
+            return extractedFile;
         } catch (IOException ioe) {
-            Timber.e("Failed to write to temp file " + tempFile.getPath() + ", " + ioe.getMessage());
+            Timber.e("Failed to extract " + path + ", " + ioe.getMessage());
             return null;
         }
+    }
 
-        Timber.e("Created temp file " + tempFile.getPath());
-
-        return tempFile;
+    /**
+     * Previously copied the asset to a TEMP file within tempPath, rewriting it on every call.
+     * Now returns the cached file from {@link #getExtractedFile}; tempPath is ignored.
+     */
+    @Deprecated
+    @Nullable
+    public static File getTempFile(String path, String tempPath, Context context) {
+        return getExtractedFile(path, context);
     }
 }
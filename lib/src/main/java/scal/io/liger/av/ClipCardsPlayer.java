@@ -3,6 +3,7 @@ package scal.io.liger.av;
 import timber.log.Timber;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -50,6 +51,7 @@ import scal.io.liger.R;
 import scal.io.liger.model.AudioClip;
 import scal.io.liger.model.ClipCard;
 import scal.io.liger.model.ClipMetadata;
+import scal.io.liger.model.ExampleMediaFile;
 import scal.io.liger.model.MediaFile;
 import scal.io.liger.model.StoryPathLibrary;
 import scal.io.liger.view.Util;
@@ -759,9 +761,22 @@ public class ClipCardsPlayer implements TextureView.SurfaceTextureListener {
                                       throws IOException {
         try {
             Timber.d("Preparing " + (isVideo ? "video" : "audio") + " media player for file " + mediaFile.getPath());
-            Uri media = Uri.parse(mediaFile.getPath());
             player.reset();
-            player.setDataSource(mContext, media);
+            // example media that is stored uncompressed plays straight out of the expansion archive
+            AssetFileDescriptor descriptor = null;
+            if (mediaFile instanceof ExampleMediaFile) {
+                descriptor = ((ExampleMediaFile) mediaFile).getExampleAssetFileDescriptor(mContext);
+            }
+            if (descriptor != null) {
+                try {
+                    player.setDataSource(descriptor.getFileDescriptor(), descriptor.getStartOffset(), descriptor.getLength());
+                } finally {
+                    descriptor.close();
+                }
+            } else {
+                Uri media = Uri.parse(mediaFile.getPath());
+                player.setDataSource(mContext, media);
+            }
             player.prepare();
 
             if (isVideo) {
@@ -2,6 +2,8 @@ package scal.io.liger.model;
 
 import timber.log.Timber;
 
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.ThumbnailUtils;
@@ -81,23 +83,16 @@ public class ExampleMediaFile extends MediaFile implements Cloneable {
     // method to handle fetching example media files from zipped expansion file
     @Deprecated
     public String getExampleURI(Card card) {
-        if (exampleUri == null) {
-            File media = null;
-
-            Timber.d("CREATING TEMP FILE FOR " + path);
+        // extracted files can be evicted from the cache, so check the remembered one is still there
+        if (exampleUri == null || !new File(exampleUri).exists()) {
+            Timber.d("EXTRACTING FILE FOR " + path);
 
             // local path will be relative
-            // need to create a temp file with content from zip file to pass to ThumbnailUtils
-
-            String tempMediaFile = card.getStoryPath().buildTargetPath(path);
-            String tempMediaPath = tempMediaFile.substring(0, tempMediaFile.lastIndexOf(File.separator));
-
-            Timber.d("Temp file path " + tempMediaPath);
-
-            media = ZipHelper.getTempFile(path, tempMediaPath, card.getStoryPath().getContext());
+            // need a real file with content from zip file to pass to ThumbnailUtils
+            File media = ZipHelper.getExtractedFile(path, card.getStoryPath().getContext());
 
             if (media == null) {
-                Timber.e("No temp file for " + path);
+                Timber.e("No extracted file for " + path);
                 return null;
             } else {
                 exampleUri = media.getPath();
@@ -107,6 +102,17 @@ public class ExampleMediaFile extends MediaFile implements Cloneable {
         return exampleUri;
     }
 
+    /**
+     * @return a descriptor for the example media within its expansion archive, for passing straight
+     * to MediaPlayer.setDataSource(FileDescriptor, long, long) without extracting a temp file, or
+     * null if the media is stored compressed and must go through {@link #getExampleURI(Card)}.
+     * The caller owns the descriptor and must close it.
+     */
+    @Nullable
+    public AssetFileDescriptor getExampleAssetFileDescriptor(@NonNull Context context) {
+        return ZipHelper.getAssetFileDescriptor(path, context);
+    }
+
     @Override
     public Object clone() throws CloneNotSupportedException {
         ExampleMediaFile clone = (ExampleMediaFile) super.clone();
@@ -13,6 +13,8 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import scal.io.liger.GsonHelper;
+
 /**
  * Created by mnbogner on 9/29/14.
  */
@@ -122,7 +124,7 @@ public class Story {
         ArrayList<ClipMetadata> metadata = oldPath.exportMetadata();
 
         // serialize current story path
-        Gson gson = new Gson();
+        Gson gson = GsonHelper.getGson();
         oldPath.clearCardReferences(); // FIXME move this stuff into the model itself so we dont have to worry about it
         oldPath.setContext(null);
         oldPath.setStoryPathLibrary(null);
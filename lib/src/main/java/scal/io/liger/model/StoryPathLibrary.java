@@ -26,6 +26,7 @@ import java.util.UUID;
 
 import scal.io.liger.Constants;
 //import scal.io.liger.IndexManager;
+import scal.io.liger.GsonHelper;
 import scal.io.liger.JsonHelper;
 import scal.io.liger.MainActivity;
 import scal.io.liger.StorymakerIndexManager;
@@ -439,7 +440,7 @@ public class StoryPathLibrary extends StoryPath {
         ArrayList<ClipMetadata> metadata = oldPath.exportMetadata();
 
         // serialize current story path
-        Gson gson = new Gson();
+        Gson gson = GsonHelper.getGson();
         oldPath.setStoryPathLibrary(null);
         oldPath.clearObservers();
         oldPath.clearCardReferences(); // FIXME move this stuff into the model itself so we dont have to worry about it
@@ -175,20 +175,18 @@ public class InstanceIndexItem extends BaseIndexItem {
         if (libraryToDelete.exists()) {
 
             // open library to get associated file(s) to delete
-            String jsonString = JsonHelper.loadJSON(libraryToDelete.getPath(), context, language);
+            ArrayList<String> referencedFiles = new ArrayList<String>(); // no need to insert dependencies to open for checking file path
+            StoryPathLibrary spl = JsonHelper.loadStoryPathLibrary(libraryToDelete.getAbsolutePath(), referencedFiles, context, language);
 
-            // if no string was loaded, cannot continue
-            if (jsonString == null) {
-                Timber.e("json could not be loaded from " + libraryToDelete);
+            // if nothing was loaded, cannot continue
+            if (spl == null) {
+                Timber.e("library could not be loaded from " + libraryToDelete.getPath());
                 // delete existing file anyway
                 Timber.d("DELETING STORY LIBRARY INSTANCE " + libraryToDelete.getName());
                 libraryToDelete.delete();
                 return;
             }
 
-            ArrayList<String> referencedFiles = new ArrayList<String>(); // no need to insert dependencies to open for checking file path
-            StoryPathLibrary spl = JsonHelper.deserializeStoryPathLibrary(jsonString, libraryToDelete.getAbsolutePath(), referencedFiles, context, language);
-
             // if specified, delete all media files associated with this story
             // (this may cause issues if another story imported these files)
             if (deleteMedia) {
@@ -3,6 +3,7 @@ package scal.io.liger.view;
 import timber.log.Timber;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
@@ -145,13 +146,23 @@ public class ExampleCardView implements DisplayableCard {
                     break;
 
                 case Constants.AUDIO:
-                    // TODO : Must remove call to getExampleURI on main thread
-                    Uri myUri = Uri.parse(mCardModel.getExampleMediaFile().getExampleURI(mCardModel));
                     final MediaPlayer mediaPlayer = new MediaPlayer();
                     mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 
                     try {
-                        mediaPlayer.setDataSource(mContext, myUri);
+                        // stored audio plays straight out of the expansion archive, no temp file needed
+                        AssetFileDescriptor descriptor = mCardModel.getExampleMediaFile().getExampleAssetFileDescriptor(mContext);
+                        if (descriptor != null) {
+                            try {
+                                mediaPlayer.setDataSource(descriptor.getFileDescriptor(), descriptor.getStartOffset(), descriptor.getLength());
+                            } finally {
+                                descriptor.close();
+                            }
+                        } else {
+                            // TODO : Must remove call to getExampleURI on main thread
+                            Uri myUri = Uri.parse(mCardModel.getExampleMediaFile().getExampleURI(mCardModel));
+                            mediaPlayer.setDataSource(mContext, myUri);
+                        }
                         mediaPlayer.prepare();
                     } catch (IOException e) {
                         e.printStackTrace();
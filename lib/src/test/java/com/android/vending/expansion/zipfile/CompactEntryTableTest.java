@@ -0,0 +1,98 @@
+package com.android.vending.expansion.zipfile;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactEntryTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mMain;
+    private File mPatch;
+    private File mPack;
+
+    private void writeArchives() throws IOException {
+        LinkedHashMap<String, String> main = new LinkedHashMap<String, String>();
+        main.put("default/library.json", "main library");
+        main.put("default/story_path.json", "main story path");
+        main.put("default/media/intro.mp4", "main intro");
+        mMain = TestArchives.write(folder.newFile("main.obb"), main);
+
+        LinkedHashMap<String, String> patch = new LinkedHashMap<String, String>();
+        patch.put("default/story_path.json", "patch story path");
+        patch.put("default/media/intro.mp4", "patch intro");
+        patch.put("default/patch_only.json", "patch only");
+        mPatch = TestArchives.write(folder.newFile("patch.obb"), patch);
+
+        LinkedHashMap<String, String> pack = new LinkedHashMap<String, String>();
+        pack.put("default/media/intro.mp4", "pack intro");
+        pack.put("pack/library.json", "pack library");
+        mPack = TestArchives.write(folder.newFile("pack.obb"), pack);
+    }
+
+    private static CompactEntryTable readTable(File archive) throws IOException {
+        // opening the archive writes its index
+        new ZipResourceFile(archive.getPath()).close();
+        return ZipIndexFile.readTable(archive, archive.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        ZipResourceFileRegistry.setCompactEntries(false);
+        ZipResourceFileRegistry.clear();
+    }
+
+    @Test
+    public void test_laterArchivesWin() throws IOException {
+        writeArchives();
+        for (boolean compact : new boolean[] { false, true }) {
+            ZipResourceFileRegistry.setCompactEntries(compact);
+            ZipResourceFile merged = ZipResourceFileRegistry.getResourceZipFile(new String[] {
+                    mMain.getPath(), mPatch.getPath(), mPack.getPath() });
+            assertEquals(compact, merged.isCompact());
+
+            assertEquals("main library", TestArchives.read(merged, "default/library.json"));
+            assertEquals("patch story path", TestArchives.read(merged, "default/story_path.json"));
+            assertEquals("patch only", TestArchives.read(merged, "default/patch_only.json"));
+            assertEquals("pack intro", TestArchives.read(merged, "default/media/intro.mp4"));
+            assertEquals("pack library", TestArchives.read(merged, "pack/library.json"));
+            assertEquals(mPack, merged.getEntry("default/media/intro.mp4").mFile);
+            assertEquals(mPatch, merged.getEntry("default/story_path.json").mFile);
+            assertNull(merged.getEntry("default/missing.json"));
+            assertEquals(5, merged.getAllEntries().length);
+        }
+    }
+
+    @Test
+    public void test_mergedTableStaysSorted() throws IOException {
+        writeArchives();
+        CompactEntryTable main = readTable(mMain);
+        CompactEntryTable patch = readTable(mPatch);
+        CompactEntryTable pack = readTable(mPack);
+
+        CompactEntryTable merged = CompactEntryTable.merge(CompactEntryTable.merge(main, patch), pack);
+        assertEquals(5, merged.mCount);
+        for (int i = 1; i < merged.mCount; i++) {
+            assertTrue(merged.getName(i - 1).compareTo(merged.getName(i)) < 0);
+        }
+
+        ZipEntryRO[] media = merged.getEntriesWithPrefix("default/media/");
+        assertEquals(1, media.length);
+        assertEquals(mPack, media[0].mFile);
+        assertEquals(4, merged.getEntriesWithPrefix("default/").length);
+        assertEquals(3, merged.getEntriesAt("default/").length);
+    }
+}
@@ -0,0 +1,71 @@
+package com.android.vending.expansion.zipfile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrentReadTest {
+
+    static final int kThreads = 8;
+    static final int kRounds = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_concurrentReadsSeeTheirOwnEntries() throws Exception {
+        final LinkedHashMap<String, String> contents = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 500; j++) {
+                text.append("entry ").append(i).append(" line ").append(j).append('\n');
+            }
+            contents.put("pack/story_path_" + i + ".json", text.toString());
+            contents.put("pack/media/clip_" + i + ".mp4", text.toString());
+        }
+        File archive = TestArchives.write(folder.newFile("pack.obb"), contents);
+
+        // every deflated read inflates, rather than most hitting the cache
+        InflatedEntryCache.setMaxBytes(0);
+        final ZipResourceFile resourceFile = new ZipResourceFile(archive.getPath());
+        ExecutorService executor = Executors.newFixedThreadPool(kThreads);
+        try {
+            ArrayList<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t = 0; t < kThreads; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        ArrayList<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(contents.entrySet());
+                        for (int round = 0; round < kRounds; round++) {
+                            // each thread walks the entries from a different place
+                            Map.Entry<String, String> entry = entries.get((offset * 7 + round) % entries.size());
+                            assertEquals(entry.getValue(), TestArchives.read(resourceFile, entry.getKey()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                // rethrows an assertion failed on a reader thread
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+            resourceFile.close();
+            InflatedEntryCache.setMaxBytes(InflatedEntryCache.DEFAULT_MAX_BYTES);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.android.vending.expansion.zipfile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExtractedEntryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        ZipResourceFileRegistry.clear();
+    }
+
+    private static LinkedHashMap<String, String> createEntries(String... namesAndTexts) {
+        LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndTexts.length; i += 2) {
+            entries.put(namesAndTexts[i], namesAndTexts[i + 1]);
+        }
+        return entries;
+    }
+
+    private static String readText(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return new String(bytes, TestArchives.UTF_8);
+    }
+
+    @Test
+    public void test_changedEntryIsExtractedAgain() throws IOException {
+        ExtractedEntryCache cache = new ExtractedEntryCache(new File(folder.getRoot(), "extracted"), 1024 * 1024);
+        File archive = TestArchives.write(folder.newFile("pack.obb"), createEntries("pack/clip.mp4", "first download"));
+        File first = cache.getFile(new ZipResourceFile(archive.getPath()), "pack/clip.mp4");
+        assertEquals("first download", readText(first));
+
+        // a new download of the same archive, with a different CRC for the entry
+        TestArchives.write(archive, createEntries("pack/clip.mp4", "second download"));
+        File second = cache.getFile(new ZipResourceFile(archive.getPath()), "pack/clip.mp4");
+        assertFalse(first.getName().equals(second.getName()));
+        assertEquals("second download", readText(second));
+    }
+
+    @Test
+    public void test_patchedEntryIsExtractedFromPatch() throws IOException {
+        ExtractedEntryCache cache = new ExtractedEntryCache(new File(folder.getRoot(), "extracted"), 1024 * 1024);
+        File main = TestArchives.write(folder.newFile("main.obb"), createEntries("default/clip.mp4", "main"));
+        File patch = TestArchives.write(folder.newFile("patch.obb"), createEntries("default/clip.mp4", "patch"));
+
+        File fromMain = cache.getFile(ZipResourceFileRegistry.getResourceZipFile(new String[] { main.getPath() }), "default/clip.mp4");
+        File fromPatch = cache.getFile(ZipResourceFileRegistry.getResourceZipFile(new String[] { main.getPath(), patch.getPath() }), "default/clip.mp4");
+        assertFalse(fromMain.getName().equals(fromPatch.getName()));
+        assertEquals("main", readText(fromMain));
+        assertEquals("patch", readText(fromPatch));
+    }
+
+    @Test
+    public void test_leastRecentlyUsedIsEvicted() throws IOException {
+        // room for two of the three entries
+        ExtractedEntryCache cache = new ExtractedEntryCache(new File(folder.getRoot(), "extracted"), 20);
+        File archive = TestArchives.write(folder.newFile("pack.obb"),
+                createEntries("a.mp4", "aaaaaaaaaa", "b.mp4", "bbbbbbbbbb", "c.mp4", "cccccccccc"));
+        ZipResourceFile resourceFile = new ZipResourceFile(archive.getPath());
+
+        File a = cache.getFile(resourceFile, "a.mp4");
+        File b = cache.getFile(resourceFile, "b.mp4");
+        assertEquals(a, cache.getFile(resourceFile, "a.mp4"));
+        File c = cache.getFile(resourceFile, "c.mp4");
+
+        assertTrue(a.isFile());
+        assertFalse(b.isFile());
+        assertTrue(c.isFile());
+    }
+}
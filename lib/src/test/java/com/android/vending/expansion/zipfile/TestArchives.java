@@ -0,0 +1,76 @@
+package com.android.vending.expansion.zipfile;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes small archives for the zip layer tests.
+ */
+final class TestArchives {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TestArchives() {
+    }
+
+    /**
+     * Writes an archive of the given entries, in iteration order. Entries
+     * whose name ends in ".mp4" are stored, like media, and the others
+     * deflated.
+     */
+    static File write(File file, Map<String, String> entries) throws IOException {
+        CRC32 crc = new CRC32();
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] data = entry.getValue().getBytes(UTF_8);
+                ZipEntry ze = new ZipEntry(entry.getKey());
+                if (entry.getKey().endsWith(".mp4")) {
+                    crc.reset();
+                    crc.update(data);
+                    ze.setMethod(ZipEntry.STORED);
+                    ze.setSize(data.length);
+                    ze.setCrc(crc.getValue());
+                } else {
+                    ze.setMethod(ZipEntry.DEFLATED);
+                }
+                out.putNextEntry(ze);
+                out.write(data);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads an entry of a resource file as text.
+     */
+    static String read(ZipResourceFile resourceFile, String assetPath) throws IOException {
+        InputStream in = resourceFile.getInputStream(assetPath);
+        if (null == in) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.android.vending.expansion.zipfile;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class Zip64Test {
+
+    static final int kManyEntries = 70000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String getEntryName(int i) {
+        return "pack/group_" + (i / 1000) + "/card_" + i + ".json";
+    }
+
+    /*
+     * More than 65535 entries, so java.util.zip writes a ZIP64 end of central
+     * directory record and leaves 0xffff in the classic one.
+     */
+    private File writeManyEntries() throws IOException {
+        File file = folder.newFile("many.obb");
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            for (int i = 0; i < kManyEntries; i++) {
+                out.putNextEntry(new ZipEntry(getEntryName(i)));
+                out.write(("{\"id\": " + i + "}").getBytes(TestArchives.UTF_8));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void test_readsMoreThan65535Entries() throws IOException {
+        File file = writeManyEntries();
+        // the hashed open scans the archive, the compact one maps the index written by it
+        for (boolean compact : new boolean[] { false, true }) {
+            ZipResourceFile resourceFile = new ZipResourceFile(file.getPath(), compact);
+            assertEquals(kManyEntries, resourceFile.getAllEntries().length);
+            assertEquals("{\"id\": 0}", TestArchives.read(resourceFile, getEntryName(0)));
+            assertEquals("{\"id\": 65535}", TestArchives.read(resourceFile, getEntryName(65535)));
+            assertEquals("{\"id\": " + (kManyEntries - 1) + "}", TestArchives.read(resourceFile, getEntryName(kManyEntries - 1)));
+        }
+    }
+
+    /*
+     * One stored entry whose sizes and offset are only in its zip64 extra
+     * field, with every count, size and offset of the classic end of central
+     * directory record left as a placeholder.
+     */
+    private File writeZip64Placeholders(String name, byte[] data) throws IOException {
+        byte[] nameBytes = name.getBytes(TestArchives.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        int localLen = ZipResourceFile.kLFHLen + nameBytes.length + data.length;
+        int centralLen = ZipResourceFile.kCDELen + nameBytes.length + 4 + 24;
+        ByteBuffer buf = ByteBuffer.allocate(localLen + centralLen + ZipResourceFile.kZip64EOCDLen
+                + ZipResourceFile.kZip64LocatorLen + ZipResourceFile.kEOCDLen);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        // local file header and data
+        buf.putInt(ZipResourceFile.kLFHSignature);
+        buf.putShort((short) 45).putShort((short) 0).putShort((short) ZipResourceFile.kCompressStored);
+        buf.putInt(0); // time and date
+        buf.putInt((int) crc.getValue()).putInt(data.length).putInt(data.length);
+        buf.putShort((short) nameBytes.length).putShort((short) 0);
+        buf.put(nameBytes).put(data);
+
+        // central directory entry
+        buf.putInt(ZipResourceFile.kCDESignature);
+        buf.putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) ZipResourceFile.kCompressStored);
+        buf.putInt(0); // time and date
+        buf.putInt((int) crc.getValue()).putInt(-1).putInt(-1);
+        buf.putShort((short) nameBytes.length).putShort((short) (4 + 24)).putShort((short) 0);
+        buf.putShort((short) 0).putShort((short) 0).putInt(0); // disk, attributes
+        buf.putInt(-1);
+        buf.put(nameBytes);
+        buf.putShort((short) ZipResourceFile.kZip64ExtraId).putShort((short) 24);
+        buf.putLong(data.length).putLong(data.length).putLong(0);
+
+        // zip64 end of central directory record and locator
+        int zip64EocdOffset = buf.position();
+        buf.putInt(ZipResourceFile.kZip64EOCDSignature);
+        buf.putLong(ZipResourceFile.kZip64EOCDLen - 12);
+        buf.putShort((short) 45).putShort((short) 45).putInt(0).putInt(0);
+        buf.putLong(1).putLong(1).putLong(centralLen).putLong(localLen);
+        buf.putInt(ZipResourceFile.kZip64LocatorSignature);
+        buf.putInt(0).putLong(zip64EocdOffset).putInt(1);
+
+        // end of central directory record, all placeholders
+        buf.putInt(ZipResourceFile.kEOCDSignature);
+        buf.putShort((short) 0).putShort((short) 0).putShort((short) -1).putShort((short) -1);
+        buf.putInt(-1).putInt(-1).putShort((short) 0);
+
+        File file = folder.newFile("zip64.obb");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buf.array());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void test_readsZip64ExtraFields() throws IOException {
+        String text = "stored in a zip64 archive";
+        File file = writeZip64Placeholders("pack/media/clip.mp4", text.getBytes(TestArchives.UTF_8));
+        // the hashed open scans the archive, the compact one maps the index written by it
+        for (boolean compact : new boolean[] { false, true }) {
+            ZipResourceFile resourceFile = new ZipResourceFile(file.getPath(), compact);
+            ZipEntryRO ze = resourceFile.getEntry("pack/media/clip.mp4");
+            assertNotNull(ze);
+            assertEquals(text.length(), ze.mCompressedLength);
+            assertEquals(text.length(), ze.mUncompressedLength);
+            assertEquals(0, ze.mLocalHdrOffset);
+            assertEquals(ZipResourceFile.kLFHLen + "pack/media/clip.mp4".length(), ze.getOffset());
+            assertEquals(text, TestArchives.read(resourceFile, "pack/media/clip.mp4"));
+        }
+    }
+}
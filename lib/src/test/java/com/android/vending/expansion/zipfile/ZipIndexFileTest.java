@@ -0,0 +1,120 @@
+package com.android.vending.expansion.zipfile;
+
+import com.android.vending.expansion.zipfile.ZipResourceFile.ZipEntryRO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipIndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LinkedHashMap<String, String> createEntries(String text) {
+        LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("pack/story_path.json", "{\"id\": \"" + text + "\"}");
+        entries.put("pack/media/clip.mp4", "not really a video " + text);
+        entries.put("pack/library.json", "{\"title\": \"" + text + "\"}");
+        // ordered differently as UTF-16 and as UTF-8
+        entries.put("pack/\ufffd.json", "replacement " + text);
+        entries.put("pack/\ud83d\ude00.json", "emoji " + text);
+        return entries;
+    }
+
+    @Test
+    public void test_indexIsWrittenAndReadBack() throws IOException {
+        LinkedHashMap<String, String> contents = createEntries("first");
+        File archive = TestArchives.write(folder.newFile("pack.obb"), contents);
+
+        ZipResourceFile scanned = new ZipResourceFile(archive.getPath());
+        assertTrue(ZipIndexFile.getIndexFile(archive).isFile());
+
+        ArrayList<ZipEntryRO> indexed = ZipIndexFile.read(archive, archive.getPath());
+        assertNotNull(indexed);
+        assertEquals(contents.size(), indexed.size());
+        for (ZipEntryRO ze : indexed) {
+            assertEntryEquals(scanned.getEntry(ze.mFileName), ze);
+        }
+
+        CompactEntryTable table = ZipIndexFile.readTable(archive, archive.getPath());
+        assertNotNull(table);
+        assertEquals(contents.size(), table.mCount);
+        for (String name : contents.keySet()) {
+            assertEntryEquals(scanned.getEntry(name), table.getEntry(name));
+        }
+    }
+
+    @Test
+    public void test_compactResourceFileReadsIndex() throws IOException {
+        LinkedHashMap<String, String> contents = createEntries("first");
+        File archive = TestArchives.write(folder.newFile("pack.obb"), contents);
+
+        // the first open scans the archive and writes the index, the second maps it
+        ZipResourceFile scanned = new ZipResourceFile(archive.getPath(), true);
+        ZipResourceFile indexed = new ZipResourceFile(archive.getPath(), true);
+        for (String name : contents.keySet()) {
+            assertEntryEquals(scanned.getEntry(name), indexed.getEntry(name));
+            assertEquals(contents.get(name), TestArchives.read(indexed, name));
+        }
+        assertEquals(contents.size(), indexed.getAllEntries().length);
+    }
+
+    @Test
+    public void test_indexOfTouchedArchiveIsIgnored() throws IOException {
+        LinkedHashMap<String, String> contents = createEntries("first");
+        File archive = TestArchives.write(folder.newFile("pack.obb"), contents);
+        new ZipResourceFile(archive.getPath());
+
+        assertTrue(archive.setLastModified(archive.lastModified() + 10000));
+        assertNull(ZipIndexFile.read(archive, archive.getPath()));
+        assertNull(ZipIndexFile.readTable(archive, archive.getPath()));
+
+        // scanned again, and indexed for the new modification time
+        ZipResourceFile resourceFile = new ZipResourceFile(archive.getPath());
+        assertEquals(contents.get("pack/library.json"), TestArchives.read(resourceFile, "pack/library.json"));
+        assertNotNull(ZipIndexFile.read(archive, archive.getPath()));
+    }
+
+    @Test
+    public void test_indexOfReplacedArchiveIsIgnored() throws IOException {
+        File archive = TestArchives.write(folder.newFile("pack.obb"), createEntries("first"));
+        new ZipResourceFile(archive.getPath());
+        long lastModified = archive.lastModified();
+
+        // same modification time, different length
+        LinkedHashMap<String, String> contents = createEntries("second, which is longer");
+        TestArchives.write(archive, contents);
+        assertTrue(archive.setLastModified(lastModified));
+        assertNull(ZipIndexFile.read(archive, archive.getPath()));
+
+        ZipResourceFile resourceFile = new ZipResourceFile(archive.getPath(), true);
+        for (String name : contents.keySet()) {
+            assertEquals(contents.get(name), TestArchives.read(resourceFile, name));
+        }
+    }
+
+    static void assertEntryEquals(ZipEntryRO expected, ZipEntryRO actual) {
+        assertNotNull(expected);
+        assertNotNull(actual);
+        assertEquals(expected.mFileName, actual.mFileName);
+        assertEquals(expected.mFile, actual.mFile);
+        assertEquals(expected.mMethod, actual.mMethod);
+        assertEquals(expected.mWhenModified, actual.mWhenModified);
+        assertEquals(expected.mCRC32, actual.mCRC32);
+        assertEquals(expected.mCompressedLength, actual.mCompressedLength);
+        assertEquals(expected.mUncompressedLength, actual.mUncompressedLength);
+        assertEquals(expected.mLocalHdrOffset, actual.mLocalHdrOffset);
+        assertEquals(expected.getOffset(), actual.getOffset());
+    }
+}
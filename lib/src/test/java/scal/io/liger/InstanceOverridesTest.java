@@ -0,0 +1,131 @@
+package scal.io.liger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import scal.io.liger.model.MarkdownCard;
+import scal.io.liger.model.StoryPath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstanceOverridesTest {
+
+    @Test
+    public void test_compactInstanceExpandsToSameCards() throws IOException {
+        StoryPath template = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        StoryPath instance = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        instance.getCardByIdOnly("intro").addValue("value", "typed", false);
+        instance.getCardByIdOnly("intro").setTitle(null);
+        ((MarkdownCard) instance.getCardByIdOnly("details")).setText("Edited");
+
+        JsonObject tree = GsonHelper.getModelGson().toJsonTree(instance).getAsJsonObject();
+        JsonObject compactTree = InstanceOverrides.compact(tree, loader(template));
+        assertNotNull(compactTree);
+        assertFalse(compactTree.has("cards"));
+
+        // changed cards are stored whole, an unchanged card is only a reference to the template's
+        JsonArray overrides = compactTree.getAsJsonArray(InstanceOverrides.CARD_OVERRIDES);
+        assertEquals(3, overrides.size());
+        assertEquals(tree.getAsJsonArray("cards").get(0), overrides.get(0));
+        assertEquals(tree.getAsJsonArray("cards").get(1), overrides.get(1));
+        JsonObject reference = overrides.get(2).getAsJsonObject();
+        assertEquals(2, reference.entrySet().size());
+        assertEquals("outro", reference.get("id").getAsString());
+        assertTrue(reference.get(InstanceOverrides.FROM_TEMPLATE).getAsBoolean());
+
+        StoryPath expanded = StoryPathReader.readStoryPath(TestStoryPaths.stream(compactTree.toString()), loader(template));
+        assertEquals(tree, TestStoryPaths.toTree(expanded));
+    }
+
+    @Test
+    public void test_cardTheTemplateDoesNotHaveIsStoredWhole() throws IOException {
+        StoryPath template = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        template.getCards().remove(template.getCardByIdOnly("details"));
+        StoryPath instance = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+
+        JsonObject tree = GsonHelper.getModelGson().toJsonTree(instance).getAsJsonObject();
+        JsonObject compactTree = InstanceOverrides.compact(tree, loader(template));
+        assertNotNull(compactTree);
+        assertEquals(tree.getAsJsonArray("cards").get(1), compactTree.getAsJsonArray(InstanceOverrides.CARD_OVERRIDES).get(1));
+
+        StoryPath expanded = StoryPathReader.readStoryPath(TestStoryPaths.stream(compactTree.toString()), loader(template));
+        assertEquals(tree, TestStoryPaths.toTree(expanded));
+    }
+
+    @Test
+    public void test_cardsDroppedByNewerTemplate() throws IOException {
+        StoryPath template = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        StoryPath instance = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        instance.getCardByIdOnly("details").addValue("value", "2.5", false);
+
+        JsonObject tree = GsonHelper.getModelGson().toJsonTree(instance).getAsJsonObject();
+        JsonObject compactTree = InstanceOverrides.compact(tree, loader(template));
+        assertNotNull(compactTree);
+
+        StoryPath newerTemplate = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        newerTemplate.getCards().remove(newerTemplate.getCardByIdOnly("details"));
+        newerTemplate.getCards().remove(newerTemplate.getCardByIdOnly("outro"));
+        StoryPath expanded = StoryPathReader.readStoryPath(TestStoryPaths.stream(compactTree.toString()), loader(newerTemplate));
+
+        // the changed card is read whole, the unchanged one can't be resolved and is left out
+        assertEquals(2, expanded.getCards().size());
+        assertEquals(tree.getAsJsonArray("cards").get(1), TestStoryPaths.toTree(expanded).getAsJsonObject().getAsJsonArray("cards").get(1));
+        assertNull(expanded.getCardByIdOnly("outro"));
+    }
+
+    @Test
+    public void test_instanceWhoseTemplateIsMissingReadsItsOwnCards() throws IOException {
+        StoryPath template = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        StoryPath instance = StoryPathReader.readStoryPath(TestStoryPaths.stream(TestStoryPaths.STORY_PATH));
+        ((MarkdownCard) instance.getCardByIdOnly("details")).setText("Edited");
+
+        JsonObject tree = GsonHelper.getModelGson().toJsonTree(instance).getAsJsonObject();
+        JsonObject compactTree = InstanceOverrides.compact(tree, loader(template));
+        assertNotNull(compactTree);
+
+        InstanceOverrides.TemplateLoader missing = new InstanceOverrides.TemplateLoader() {
+            @Override
+            public StoryPath loadTemplate(String templatePath, String language) {
+                return null;
+            }
+        };
+        StoryPath[] reads = new StoryPath[] {
+                StoryPathReader.readStoryPath(TestStoryPaths.stream(compactTree.toString()), missing),
+                StoryPathReader.readStoryPath(TestStoryPaths.stream(compactTree.toString()), null)
+        };
+        for (StoryPath read : reads) {
+            assertEquals(1, read.getCards().size());
+            assertEquals("Edited", ((MarkdownCard) read.getCardByIdOnly("details")).getText());
+        }
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void test_cardWithoutTypeIsReported() throws IOException {
+        StoryPathReader.readStoryPath(TestStoryPaths.stream("{"
+                + "\"id\": \"story_path\","
+                + "\"title\": \"Story Path\","
+                + "\"classPackage\": \"scal.io.liger.model\","
+                + "\"cards\": [{\"id\": \"intro\", \"title\": \"Intro\"}]"
+                + "}"));
+    }
+
+    private static InstanceOverrides.TemplateLoader loader(final StoryPath template) {
+        return new InstanceOverrides.TemplateLoader() {
+            @Override
+            public StoryPath loadTemplate(String templatePath, String language) {
+                assertEquals(template.getTemplatePath(), templatePath);
+                assertEquals(template.getLanguage(), language);
+                return template;
+            }
+        };
+    }
+}
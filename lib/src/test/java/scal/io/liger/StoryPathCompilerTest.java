@@ -0,0 +1,78 @@
+package scal.io.liger;
+
+import com.google.gson.JsonParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import scal.io.liger.model.StoryPath;
+import scal.io.liger.model.StoryPathLibrary;
+
+import static org.junit.Assert.assertEquals;
+
+public class StoryPathCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_compiledStoryPathReadsLikeJson() throws IOException {
+        byte[] json = TestStoryPaths.STORY_PATH.getBytes(TestStoryPaths.UTF_8);
+        byte[] compiled = StoryPathCompiler.compile(new JsonParser().parse(TestStoryPaths.STORY_PATH), TestStoryPaths.crc32(json));
+
+        StoryPath fromJson = StoryPathReader.readStoryPath(new ByteArrayInputStream(json));
+        StoryPath fromCompiled = StoryPathReader.readCompiledStoryPath(new ByteArrayInputStream(compiled));
+
+        assertEquals(TestStoryPaths.toTree(fromJson), TestStoryPaths.toTree(fromCompiled));
+    }
+
+    @Test
+    public void test_compiledLibraryReadsLikeJson() throws IOException {
+        byte[] json = TestStoryPaths.LIBRARY.getBytes(TestStoryPaths.UTF_8);
+        byte[] compiled = StoryPathCompiler.compile(new JsonParser().parse(TestStoryPaths.LIBRARY), TestStoryPaths.crc32(json));
+
+        StoryPathLibrary fromJson = StoryPathReader.readStoryPathLibrary(new ByteArrayInputStream(json));
+        StoryPathLibrary fromCompiled = StoryPathReader.readCompiledStoryPathLibrary(new ByteArrayInputStream(compiled));
+
+        assertEquals(TestStoryPaths.toTree(fromJson), TestStoryPaths.toTree(fromCompiled));
+    }
+
+    @Test
+    public void test_compiledFileRecordsSourceCrc() throws IOException {
+        byte[] json = TestStoryPaths.STORY_PATH.getBytes(TestStoryPaths.UTF_8);
+        File jsonFile = folder.newFile("story_path.json");
+        FileOutputStream out = new FileOutputStream(jsonFile);
+        try {
+            out.write(json);
+        } finally {
+            out.close();
+        }
+
+        File compiledFile = StoryPathCompiler.compile(jsonFile);
+        assertEquals(StoryPathCompiler.getCompiledPath(jsonFile.getPath()), compiledFile.getPath());
+
+        byte[] header = new byte[BinaryJsonReader.HEADER_SIZE];
+        DataInputStream in = new DataInputStream(new FileInputStream(compiledFile));
+        try {
+            in.readFully(header);
+        } finally {
+            in.close();
+        }
+        assertEquals(TestStoryPaths.crc32(json), BinaryJsonReader.getSourceCrc32(header));
+    }
+
+    @Test
+    public void test_jsonIsNotACompiledHeader() {
+        byte[] header = new byte[BinaryJsonReader.HEADER_SIZE];
+        System.arraycopy(TestStoryPaths.STORY_PATH.getBytes(TestStoryPaths.UTF_8), 0, header, 0, header.length);
+        assertEquals(-1, BinaryJsonReader.getSourceCrc32(header));
+    }
+}
@@ -0,0 +1,66 @@
+package scal.io.liger;
+
+import com.google.gson.JsonElement;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Story path and library documents shared by the reader, compiler and instance tests.
+ */
+final class TestStoryPaths {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A story path template with a reference, values, visibility and non-ASCII text.
+     */
+    static final String STORY_PATH = "{"
+            + "\"id\": \"story_path\","
+            + "\"title\": \"Story Path\","
+            + "\"classPackage\": \"scal.io.liger.model\","
+            + "\"templatePath\": \"learning_guide/story_path.json\","
+            + "\"language\": \"en\","
+            + "\"cards\": ["
+            + "{\"type\": \"MarkdownCard\", \"id\": \"intro\", \"title\": \"Intro\", \"text\": \"# Hello\"},"
+            + "{\"type\": \"MarkdownCard\", \"id\": \"details\", \"title\": \"Details\", \"text\": \"Said {{intro}}\","
+            + " \"references\": [\"story_path::intro::value\"], \"values\": {\"value\": \"1.5\"}},"
+            + "{\"type\": \"MarkdownCard\", \"id\": \"outro\", \"title\": \"Outro\", \"text\": \"\\u00e9t\\u00e9\", \"stateVisiblity\": true}"
+            + "]}";
+
+    /**
+     * A library with a template file, a media file and one card.
+     */
+    static final String LIBRARY = "{"
+            + "\"id\": \"library\","
+            + "\"title\": \"Library\","
+            + "\"classPackage\": \"scal.io.liger.model\","
+            + "\"metaTitle\": \"Meta\","
+            + "\"storyPathTemplateFiles\": {\"story_path\": \"learning_guide/story_path.json\"},"
+            + "\"mediaFiles\": {\"clip\": {\"path\": \"/sdcard/clip.mp4\", \"medium\": \"video\"}},"
+            + "\"cards\": ["
+            + "{\"type\": \"MarkdownCard\", \"id\": \"choose\", \"title\": \"Choose\", \"text\": \"Pick one\"}"
+            + "]}";
+
+    private TestStoryPaths() {
+    }
+
+    static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+
+    static long crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * @return the model as it is saved, for comparing models
+     */
+    static JsonElement toTree(Object model) {
+        return GsonHelper.getModelGson().toJsonTree(model);
+    }
+}